@@ -46,6 +46,23 @@ public class NavigatorGradleExtension {
     public Pattern mixinArtifactRegex = Pattern.compile("org\\.spongepowered:mixin|net\\.fabricmc:sponge-mixin");
     public boolean experimentalThreadedFF = false;
     public String runDir = "run";
+    //Asset downloads adapt their concurrency between these.
+    public int minDownloadConcurrency = 2;
+    public int maxDownloadConcurrency = 32;
+    //Combined bandwidth cap for asset downloads in bytes per second, 0 for none.
+    public long downloadBandwidthLimit = 0;
+    //How long downloaded version metadata is trusted before checking for changes, in minutes.
+    public long versionMetadataTtl = 24 * 60;
+    //Build cache for remapped and decompiled StarMade outputs.
+    public boolean buildCache = true;
+    //Defaults to 'caches/navigator-build-cache' in the Gradle user home.
+    public Object buildCacheDir = null;
+    //Local entries are evicted past this size in megabytes, or when unused for this many days.
+    public long buildCacheMaxSize = 4096;
+    public long buildCacheMaxAge = 30;
+    //Optional remote HTTP build cache, checked after the local one.
+    public String buildCacheUrl = null;
+    public boolean buildCachePush = false;
 
     public RunConfiguration clientRun = new RunConfiguration();
     public RunConfiguration serverRun = new RunConfiguration();
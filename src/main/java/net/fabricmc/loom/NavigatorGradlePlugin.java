@@ -33,12 +33,17 @@ import net.fabricmc.loom.data.AssetIndexFormat;
 import net.fabricmc.loom.data.VersionInfoJson;
 import net.fabricmc.loom.data.VersionManifestJson;
 import net.fabricmc.loom.tasks.*;
-import net.fabricmc.loom.tasks.download.DownloadAction;
+import net.fabricmc.loom.tasks.cache.BuildCache;
+import net.fabricmc.loom.tasks.cache.BuildCacheBackend;
+import net.fabricmc.loom.tasks.cache.DirectoryBuildCacheBackend;
+import net.fabricmc.loom.tasks.cache.HttpBuildCacheBackend;
 import net.fabricmc.loom.tasks.download.DownloadTask;
+import net.fabricmc.loom.tasks.download.SharedHttpClient;
 import net.fabricmc.loom.tasks.fernflower.FernFlowerTask;
 import net.fabricmc.loom.tasks.ide.GenIdeaRunConfigsTask;
 import net.fabricmc.loom.tasks.sourceremap.SourcesRemapTask;
 import net.fabricmc.loom.util.MavenNotation;
+import net.fabricmc.loom.util.StarMadeVersionResolver;
 import net.fabricmc.loom.util.Utils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.StringSubstitutor;
@@ -70,12 +75,13 @@ import org.gradle.language.base.artifact.SourcesArtifact;
 import org.gradle.language.jvm.tasks.ProcessResources;
 
 import java.io.File;
-import java.io.IOException;
 import java.net.MalformedURLException;
-import java.net.URL;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -108,13 +114,14 @@ public class NavigatorGradlePlugin implements Plugin<Project> {
     private static final Map<String, String> substMap = new HashMap<>();
     private static final StringSubstitutor substr = new StringSubstitutor(substMap);
 
+    protected Project project;
     protected NavigatorGradleExtension extension;
 
     protected File userCache;
     protected File remappedRepo;
 
-    protected VersionManifestJson.Version starmadeVersion;
-    protected VersionInfoJson versionInfo;
+    protected StarMadeVersionResolver versionResolver;
+    private BuildCache buildCache;
 
     protected TaskProvider<DownloadTask> dlGameJarTask;
     protected TaskProvider<DownloadTask> dlServerJarTask;
@@ -126,6 +133,7 @@ public class NavigatorGradlePlugin implements Plugin<Project> {
     protected TaskProvider<TinyRemapTask> remapStarMadeNamedTask;
     protected TaskProvider<FernFlowerTask> decompileStarMadeNamedTask;
     protected TaskProvider<RemapLineNumbersTask> remapNamedLineNumbersTask;
+    protected TaskProvider<RemapDependenciesTask> remapDependenciesTask;
     protected TaskProvider<Task> remapModCompileTask;
     protected TaskProvider<Task> ideSetupTask;
     protected TaskProvider<GenIdeaRunConfigsTask> genIdeaRuns;
@@ -140,10 +148,12 @@ public class NavigatorGradlePlugin implements Plugin<Project> {
 
     @Override
     public void apply(Project project) {
+        this.project = project;
         extension = project.getExtensions().create("starmade", NavigatorGradleExtension.class, project);
         userCache = new File(project.getGradle().getGradleUserHomeDir(), "caches/fabric-loom");
         remappedRepo = new File(userCache, "/remapped");
         remappedRepo.mkdirs();
+        versionResolver = new StarMadeVersionResolver(project, extension, userCache);
 
         project.afterEvaluate(p -> {
             substMap.put("version", extension.version);
@@ -198,84 +208,35 @@ public class NavigatorGradlePlugin implements Plugin<Project> {
             dependencies.add("compile", extension.mappings);
         });
 
-        //This is done at configuration time to work around an Intellij Quirk where dependencies added via a
-        //task are not added to the project, this is at the cost of slightly greater configuration time, realistically
-        //these as separate tasks was redundant as they were _always_ executed.
-        //TODO, Re-Evaluate this at some point, perhaps there is a more modular way to do this,
-        //       i.e a Local version file, or something of the sort.
-        project.afterEvaluate(p -> {
-            File manifestFile = new File(userCache, "versions/version_manifest.lst");
-            DownloadAction dlManifest = new DownloadAction(project);
-            dlManifest.setSrc(RESOURCES_URL+"releasebuildindex");
-            dlManifest.setDest(manifestFile);
-            dlManifest.setUseETag(true);
-            dlManifest.setOnlyIfModified(true);
-            sneaky(dlManifest::execute);
-
-            try {
-            VersionManifestJson manifest = VersionManifestJson.fromStarMadeIndex(manifestFile);
-            starmadeVersion = manifest.findVersion(extension.version)//
-                    .orElseThrow(() -> new RuntimeException("Failed to find StarMade version: " + extension.version));
-            } catch (IOException ex) { throw new RuntimeException(ex); }
-
-            File versionFile = new File(userCache, format("versions/{0}/checksums.lst", extension.version));
-            DownloadAction dlVersion = new DownloadAction(project);
-            dlVersion.setSrc(starmadeVersion.url + "checksums");
-            dlVersion.setDest(versionFile);
-            dlVersion.setUseETag(true);
-            dlVersion.setOnlyIfModified(true);
-            sneaky(dlVersion::execute);
-
-            try { versionInfo = VersionInfoJson.fromStarMadeChecksums(versionFile, new URL(starmadeVersion.url)); }
-            catch (Exception ex) { throw new RuntimeException(ex); }
-            /*
-            versionInfo.libraries.stream()//
-                    .filter(VersionInfoJson.Library::allowed)//
-                    .forEach(lib -> {
-                        if (lib.natives == null) {
-                            String dep = lib.getArtifact(false);
-                            String config = CONFIG_MINECRAFT_DEPS;
-                            for (String str : clientDependencyMatches) {
-                                if (dep.contains(str)) {
-                                    config = CONFIG_MINECRAFT_DEPS_CLIENT;
-                                    break;
-                                }
-                            }
-                            dependencies.add(config, dep);
-                        } else {
-                            dependencies.add(CONFIG_MINECRAFT_NATIVES, lib.getArtifact(false));
-                        }
-                    });
-            */
-            dependencies.add(CONFIG_STARMADE_DEPS,
-                project.files(versionInfo.downloads.entrySet().stream()
-                    .filter(entry -> entry.getValue().url.getPath().lastIndexOf("/lib/")> -1)//
-                    .map(entry -> new File(userCache, "assets/objects/" + entry.getKey())).toArray()));
+        //Version metadata is resolved lazily, the first time something actually needs it.
+        //Dependencies are still added at configuration time to work around an Intellij Quirk where
+        //dependencies added via a task are not added to the project, only their files are deferred.
+        dependencies.add(CONFIG_STARMADE_DEPS, project.files((Callable<Object>) () -> getVersionInfo().downloads.entrySet().stream()
+                .filter(entry -> entry.getValue().url.getPath().lastIndexOf("/lib/") > -1)//
+                .map(entry -> new File(userCache, "assets/objects/" + entry.getKey()))//
+                .toArray()));
 
-        });
-
-        //Run configs rely on asset stuff above.
         project.afterEvaluate(p -> {
             extension.clientRun//
-                    .setWorkingDir(project.file(extension.runDir))//
-                    .addProgramArg("--assetIndex").addProgramArg(versionInfo.assetIndex.getId(extension.version))//
-                    .addProgramArg("--assetsDir").addProgramArg(new File(userCache, "assets").getAbsolutePath());
+                    .setWorkingDir(project.file(extension.runDir));
 
             extension.serverRun//
                     .setWorkingDir(project.file(extension.runDir));
         });
 
         dlGameJarTask = tasks.register(TASK_DOWNLOAD_GAME_JAR, DownloadTask.class, t -> {
-            t.setSrc(laterURL(() -> versionInfo.downloads.get("StarMade.jar").url));
+            t.setSrc(laterURL(() -> getVersionInfo().downloads.get("StarMade.jar").url));
             t.setDest(laterFile(() -> new File(userCache, format("versions/{0}/StarMade.jar", extension.version))));
             t.setUseETag(true);
             t.setOnlyIfModified(true);
+            t.setSegments(4);
+            t.setSha1(laterHashCode(() -> getVersionInfo().downloads.get("StarMade.jar").sha1));
         });
 
         dlAssetsIndexTask = tasks.register(TASK_DOWNLOAD_ASSETS_INDEX, DownloadTask.class, t -> {
-            t.setSrc(laterURL(() -> versionInfo.assetIndex.url));
+            t.setSrc(laterURL(() -> getVersionInfo().assetIndex.url));
             t.setDest(laterFile(() -> {
-                VersionInfoJson.AssetIndex assetIndex = versionInfo.assetIndex;
+                VersionInfoJson.AssetIndex assetIndex = getVersionInfo().assetIndex;
                 return new File(userCache, format("assets/indexes/{0}.lst", assetIndex.getId(extension.version)));
             }));
             t.setUseETag(true);
@@ -286,8 +247,12 @@ public class NavigatorGradlePlugin implements Plugin<Project> {
             t.dependsOn(dlAssetsIndexTask);
             t.setAssetFormat(AssetIndexFormat.STARMADE);
             t.setAssetsDir(new File(userCache, "assets"));
+            t.setUseObjectStore(true);
+            t.setMinConcurrency(extension.minDownloadConcurrency);
+            t.setMaxConcurrency(extension.maxDownloadConcurrency);
+            t.setBandwidthLimit(extension.downloadBandwidthLimit);
             t.setAssetIndex(laterTaskOutput(dlAssetsIndexTask));
-            t.setResourceUrl(starmadeVersion.url);
+            t.setResourceUrl(laterString(() -> getStarMadeVersion().url));
         });
 
         extractMappingsTask = tasks.register(TASK_EXTRACT_MAPPINGS, ExtractMappingsTask.class, t -> {
@@ -302,6 +267,8 @@ public class NavigatorGradlePlugin implements Plugin<Project> {
         MavenNotation namedArtifact = MavenNotation.parse("org.schema:starmade:${version}-named");
         MavenNotation namedLinemapArtifact = namedArtifact.withClassifier("linemap").withExtension("linemap");
         MavenNotation namedLinemappedArtifact = MavenNotation.parse("org.schema:starmade:${version}-named-linemapped");
+        //One task per target namespace, tiny-remapper 0.1 applies the mappings while building
+        //its class hierarchy, so a hierarchy can't be shared between namespaces.
         remapStarMadeIntermediaryTask = tasks.register("remapStarMadeIntermediaryTask", TinyRemapTask.class, t -> {
             t.dependsOn(extractMappingsTask, dlGameJarTask, dlAssetsTask);
             t.addMappings(laterTaskOutput(extractMappingsTask));
@@ -310,6 +277,7 @@ public class NavigatorGradlePlugin implements Plugin<Project> {
             t.setLibraries(smDeps);
             t.setInput(laterTaskOutput(dlGameJarTask));
             t.setOutput(laterFile(() -> remap(intermediaryArtifact).subst(substr).toFile(remappedRepo)));
+            t.setBuildCache(this::getBuildCache);
         });
         project.afterEvaluate(p -> dependencies.add("starmadeIntermediary", remap(intermediaryArtifact).subst(substr).toString()));
 
@@ -321,6 +289,7 @@ public class NavigatorGradlePlugin implements Plugin<Project> {
             t.setLibraries(smDeps);
             t.setInput(laterTaskOutput(dlGameJarTask));
             t.setOutput(laterFile(() -> remap(namedArtifact).subst(substr).toFile(remappedRepo)));
+            t.setBuildCache(this::getBuildCache);
         });
         project.afterEvaluate(p -> dependencies.add("starmadeNamed", remap(namedArtifact).subst(substr).toString()));
 
@@ -330,6 +299,7 @@ public class NavigatorGradlePlugin implements Plugin<Project> {
             t.setOutput(laterFile(() -> remap(namedArtifact).subst(substr).withClassifier("sources").toFile(remappedRepo)));
             t.setLineMapFile(laterFile(() -> remap(namedLinemapArtifact).subst(substr).toFile(remappedRepo)));
             t.setLibraries(smDeps);
+            t.setBuildCache(this::getBuildCache);
             if (!extension.experimentalThreadedFF) {
                 t.setNumThreads(0);
             }
@@ -344,10 +314,20 @@ public class NavigatorGradlePlugin implements Plugin<Project> {
             t.setInput(laterTaskOutput(remapStarMadeNamedTask));
             t.setOutput(laterFile(() -> remap(namedLinemappedArtifact).subst(substr).toFile(remappedRepo)));
             t.setLineMap(laterFile(() -> remap(namedLinemapArtifact).subst(substr).toFile(remappedRepo)));
+            t.setBuildCache(this::getBuildCache);
         });
         project.afterEvaluate(p -> dependencies.add("starmadeNamedLinemapped", remap(namedLinemappedArtifact).subst(substr).toString()));
 
+        remapDependenciesTask = tasks.register("remapDependencies", RemapDependenciesTask.class, t -> {
+            t.dependsOn(extractMappingsTask, remapStarMadeIntermediaryTask);
+            t.addMappings(laterTaskOutput(extractMappingsTask));
+            t.setFromMappings("intermediary");
+            t.setToMappings("named");
+            t.setLibraries(smDeps.plus(smIntermediary));
+        });
+
         remapModCompileTask = tasks.register("remapModCompile", t -> {
+            t.dependsOn(remapDependenciesTask);
             t.getOutputs().upToDateWhen((e) -> false);
             t.setOnlyIf(e -> true);
             t.doLast(e -> {
@@ -395,40 +375,15 @@ public class NavigatorGradlePlugin implements Plugin<Project> {
                         }
                     }
                 }
-                //TODO, the Libraries of these tasks need to be evaluated, im fairly sure they don't have a complete context at the moment.
+                //TODO, the Libraries of this task need to be evaluated, im fairly sure they don't have a complete context at the moment.
                 MavenNotation remappedNotation = remap(notation);
-                String tskName = notation.toString().replace(":", "");
-                TaskProvider<TinyRemapTask> remapClasses = tasks.register("remapDependency_" + tskName, TinyRemapTask.class, t -> {
-                    t.dependsOn(extractMappingsTask, remapStarMadeIntermediaryTask);
-                    t.addMappings(laterTaskOutput(extractMappingsTask));
-                    t.setFromMappings("intermediary");
-                    t.setToMappings("named");
-                    t.setLibraries(smDeps.plus(smIntermediary));
-                    t.setInput(classes);
-                    t.setOutput(remappedNotation.toFile(remappedRepo));
-                });
-                TaskProvider<SourcesRemapTask> remapSources;
-                if (sources.get() != null) {
-                    remapSources = tasks.register("remapDependencySources_" + tskName, SourcesRemapTask.class, t -> {
-                        t.dependsOn(extractMappingsTask, remapStarMadeIntermediaryTask);
-                        t.addMappings(laterTaskOutput(extractMappingsTask));
-                        t.setFromMappings("intermediary");
-                        t.setToMappings("named");
-                        t.setLibraries(smDeps.plus(smIntermediary));
-                        t.setInput(sources.get());
-                        t.setOutput(remappedNotation.withClassifier("sources").toFile(remappedRepo));
-                    });
-                } else {//Messy, but lambda's and effective final.
-                    remapSources = null;
-                }
-                dependencies.add("remappedDeps", remappedNotation.toString());
-
-                remapModCompileTask.configure(t -> {
-                    t.dependsOn(remapClasses);
-                    if (remapSources != null) {
-                        t.dependsOn(remapSources);
+                remapDependenciesTask.configure(t -> {
+                    t.addDependency(notation.toString(), classes, remappedNotation.toFile(remappedRepo));
+                    if (sources.get() != null) {
+                        t.addSources(notation.toString() + ":sources", sources.get(), remappedNotation.withClassifier("sources").toFile(remappedRepo));
                     }
                 });
+                dependencies.add("remappedDeps", remappedNotation.toString());
             }
         });
 
@@ -443,6 +398,10 @@ public class NavigatorGradlePlugin implements Plugin<Project> {
             t.dependsOn(ideSetupTask);
             t.setClientRun(extension.clientRun);
             t.setServerRun(extension.serverRun);
+            //Needs version metadata, only resolve it when actually generating runs.
+            t.doFirst(e -> extension.clientRun//
+                    .addProgramArg("--assetIndex").addProgramArg(getVersionInfo().assetIndex.getId(extension.version))//
+                    .addProgramArg("--assetsDir").addProgramArg(new File(userCache, "assets").getAbsolutePath()));
         });
 
         buildTask = tasks.named("build");
@@ -567,6 +526,7 @@ public class NavigatorGradlePlugin implements Plugin<Project> {
             t.setInput(laterTaskOutput(jarTask));
             t.setOutput(laterTaskOutput(jarTask));
             t.setSimpleCache(true);
+            t.setIncremental(true);
         });
         jarTask.configure(t -> {
             t.finalizedBy(remapJarTask);
@@ -577,6 +537,42 @@ public class NavigatorGradlePlugin implements Plugin<Project> {
         tempTask.dependsOn(dlAssetsTask, remapStarMadeIntermediaryTask, remapStarMadeNamedTask, remapModCompileTask);
     }
 
+    /**
+     * The manifest entry for the configured StarMade version.
+     * Resolved on first use, may hit the network.
+     */
+    public VersionManifestJson.Version getStarMadeVersion() {
+        return versionResolver.getVersion();
+    }
+
+    /**
+     * The version info for the configured StarMade version.
+     * Resolved on first use, may hit the network.
+     */
+    public VersionInfoJson getVersionInfo() {
+        return versionResolver.getVersionInfo();
+    }
+
+    /**
+     * The build cache for expensive StarMade outputs, null if disabled.
+     * Created on first use from the extension.
+     */
+    public synchronized BuildCache getBuildCache() {
+        if (!extension.buildCache) {
+            return null;
+        }
+        if (buildCache == null) {
+            List<BuildCacheBackend> backends = new ArrayList<>();
+            File dir = extension.buildCacheDir != null ? project.file(extension.buildCacheDir) : new File(project.getGradle().getGradleUserHomeDir(), "caches/navigator-build-cache");
+            backends.add(new DirectoryBuildCacheBackend(dir, extension.buildCacheMaxSize * 1024 * 1024, TimeUnit.DAYS.toMillis(extension.buildCacheMaxAge)));
+            if (extension.buildCacheUrl != null) {
+                backends.add(new HttpBuildCacheBackend(SharedHttpClient.get(project).getClient(), URI.create(extension.buildCacheUrl), extension.buildCachePush));
+            }
+            buildCache = new BuildCache(backends);
+        }
+        return buildCache;
+    }
+
     public MavenNotation remap(MavenNotation notation) {
         String[] mappingSegs = extension.mappings.split(":");
         mappingSegs[2] = mappingSegs[2].replace(".", "-");//Remove '.' from the version.
@@ -0,0 +1,489 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.data;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Supplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A compiled, memory mapped form of a tiny v1 mappings file.
+ *
+ * Written next to the source as {@code <source>.<version>.bin} by {@link #compile}, see
+ * {@link VersionedFiles}. Loading is a single mmap, names are decoded only when read.
+ * Every name is interned into a shared string table, classes hold one name per namespace
+ * and the range of their fields and methods, members are stored grouped by owner. Member descriptors are stored in the
+ * first namespace, as in the tiny file, see {@link #mapDesc}.
+ *
+ * Classes which only appear as the owner of a member are included, named the same
+ * in every namespace, and are not {@link #isDeclared declared}.
+ *
+ * Like {@link IndexSnapshot}, a compiled file is tied to its source by size and modified
+ * time and is ignored if they don't match.
+ *
+ * Loaded in the forked source remapper and inside javac's annotation processor, neither
+ * of which have the Gradle API, so this must only depend on the JDK.
+ * <pre>
+ * Header:
+ *  int    magic
+ *  int    format version
+ *  short  source validator length
+ *  byte[] source validator, UTF-8
+ *  int    namespace count
+ *  int    string, class, field and method counts
+ *  int[]  namespace names
+ *  int[]  string offsets, string count + 1
+ * Classes:
+ *  int    flags
+ *  int    first field, field count
+ *  int    first method, method count
+ *  int[]  names
+ * Fields, then methods:
+ *  int    owner class
+ *  int    descriptor
+ *  int[]  names
+ * String table:
+ *  UTF-8 bytes
+ * </pre>
+ */
+public class CompiledMappings {
+
+    private static final int MAGIC = 0x534D544D;//SMTM
+    private static final int FORMAT_VERSION = 1;
+    private static final int FLAG_DECLARED = 1;
+
+    private final ByteBuffer buffer;
+    private final int nsCount;
+    private final String[] namespaces;
+    private final int classCount;
+    private final int fieldCount;
+    private final int methodCount;
+    private final int offsetsStart;
+    private final int classesStart;
+    private final int fieldsStart;
+    private final int methodsStart;
+    private final int stringsStart;
+    private final int classSize;
+    private final int memberSize;
+    //Decoded lazily, racing threads at worst decode a string twice.
+    private final String[] strings;
+    private final Map<Integer, Map<String, String>> descMappers = new HashMap<>();
+
+    private CompiledMappings(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        nsCount = buffer.getInt();
+        int stringCount = buffer.getInt();
+        classCount = buffer.getInt();
+        fieldCount = buffer.getInt();
+        methodCount = buffer.getInt();
+        int[] nsIds = new int[nsCount];
+        for (int i = 0; i < nsCount; i++) {
+            nsIds[i] = buffer.getInt();
+        }
+        classSize = 20 + nsCount * 4;
+        memberSize = 8 + nsCount * 4;
+        offsetsStart = buffer.position();
+        classesStart = offsetsStart + (stringCount + 1) * 4;
+        fieldsStart = classesStart + classCount * classSize;
+        methodsStart = fieldsStart + fieldCount * memberSize;
+        stringsStart = methodsStart + methodCount * memberSize;
+        if ((long) stringsStart + buffer.getInt(offsetsStart + stringCount * 4) > buffer.limit()) {
+            throw new IOException("Truncated compiled mappings.");
+        }
+        strings = new String[stringCount];
+        namespaces = new String[nsCount];
+        for (int i = 0; i < nsCount; i++) {
+            namespaces[i] = getString(nsIds[i]);
+        }
+    }
+
+    /**
+     * Loads the compiled form of the given mappings file.
+     *
+     * @param source The tiny mappings file.
+     * @return The compiled mappings, or null if there are none or they are stale.
+     */
+    public static CompiledMappings load(File source) {
+        if (!source.exists()) {
+            return null;
+        }
+        File file = VersionedFiles.get(source, getValidator(source));
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            byte[] validator = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(validator);
+            if (!getValidator(source).equals(new String(validator, UTF_8))) {
+                return null;
+            }
+            return new CompiledMappings(buffer);
+        } catch (IOException | RuntimeException e) {
+            //Unreadable, treated the same as stale.
+            return null;
+        }
+    }
+
+    /**
+     * Loads the compiled form of the given mappings file, compiling it first if there is none
+     * or it is stale, i.e. the task writing it was up to date or restored without it.
+     *
+     * @param source The tiny mappings file.
+     * @return The compiled mappings.
+     * @throws IOException If the mappings can't be parsed, or their compiled form written.
+     */
+    public static CompiledMappings loadOrCompile(File source) throws IOException {
+        CompiledMappings mappings = load(source);
+        return mappings != null ? mappings : compile(source);
+    }
+
+    /**
+     * Parses the given tiny mappings file and writes its compiled form.
+     *
+     * @param source The tiny mappings file.
+     * @return The compiled mappings.
+     */
+    public static CompiledMappings compile(File source) throws IOException {
+        Compiler compiler = new Compiler();
+        String validator = getValidator(source);
+        compiler.parse(IndexTokenizer.open(source));
+        File file = VersionedFiles.get(source, validator);
+        VersionedFiles.write(source, file, out -> compiler.write(out, validator));
+        CompiledMappings mappings = load(source);
+        if (mappings == null) {
+            throw new IOException("Failed to load freshly compiled mappings: " + file);
+        }
+        return mappings;
+    }
+
+    /**
+     * Finds a namespace by name, ignoring case.
+     *
+     * @return The namespace index, or -1.
+     */
+    public int getNamespace(String name) {
+        for (int i = 0; i < nsCount; i++) {
+            if (namespaces[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Visits every class and member, from one namespace to another.
+     * Each class is visited before its fields, then its methods.
+     *
+     * @param from    The source namespace.
+     * @param to      The target namespace.
+     * @param classes Visits each class.
+     * @param members Visits each field and method.
+     * @throws IllegalArgumentException If either namespace is missing.
+     */
+    public void accept(String from, String to, ClassVisitor classes, MemberVisitor members) {
+        int fromNs = getNamespace(from);
+        int toNs = getNamespace(to);
+        if (fromNs == -1 || toNs == -1) {
+            throw new IllegalArgumentException("Mappings don't contain '" + from + "' and '" + to + "'.");
+        }
+        for (int cls = 0; cls < classCount; cls++) {
+            String ownerFrom = getClassName(cls, fromNs);
+            String ownerTo = getClassName(cls, toNs);
+            classes.visitClass(ownerFrom, ownerTo, isDeclared(cls));
+            int firstField = getFirstField(cls);
+            for (int f = firstField; f < firstField + getFieldCount(cls); f++) {
+                int field = f;
+                members.visitMember(false, ownerFrom, getFieldName(f, fromNs), getFieldDesc(f, fromNs), ownerTo, getFieldName(f, toNs), () -> getFieldDesc(field, toNs));
+            }
+            int firstMethod = getFirstMethod(cls);
+            for (int m = firstMethod; m < firstMethod + getMethodCount(cls); m++) {
+                int method = m;
+                members.visitMember(true, ownerFrom, getMethodName(m, fromNs), getMethodDesc(m, fromNs), ownerTo, getMethodName(m, toNs), () -> getMethodDesc(method, toNs));
+            }
+        }
+    }
+
+    //@formatter:off
+    public List<String> getNamespaces() { return Collections.unmodifiableList(Arrays.asList(namespaces)); }
+    public int getClassCount() { return classCount; }
+    public boolean isDeclared(int cls) { return (buffer.getInt(classesStart + cls * classSize) & FLAG_DECLARED) != 0; }
+    public int getFirstField(int cls) { return buffer.getInt(classesStart + cls * classSize + 4); }
+    public int getFieldCount(int cls) { return buffer.getInt(classesStart + cls * classSize + 8); }
+    public int getFirstMethod(int cls) { return buffer.getInt(classesStart + cls * classSize + 12); }
+    public int getMethodCount(int cls) { return buffer.getInt(classesStart + cls * classSize + 16); }
+    public String getClassName(int cls, int ns) { return getString(buffer.getInt(classesStart + cls * classSize + 20 + ns * 4)); }
+    public String getFieldName(int field, int ns) { return getString(buffer.getInt(fieldsStart + field * memberSize + 8 + ns * 4)); }
+    public String getFieldDesc(int field, int ns) { return mapDesc(getString(buffer.getInt(fieldsStart + field * memberSize + 4)), ns); }
+    public String getMethodName(int method, int ns) { return getString(buffer.getInt(methodsStart + method * memberSize + 8 + ns * 4)); }
+    public String getMethodDesc(int method, int ns) { return mapDesc(getString(buffer.getInt(methodsStart + method * memberSize + 4)), ns); }
+    //@formatter:on
+
+    /**
+     * Maps every class in a descriptor from the first namespace to the given namespace.
+     */
+    public String mapDesc(String desc, int ns) {
+        if (ns == 0 || desc.indexOf('L') == -1) {
+            return desc;
+        }
+        Map<String, String> classes = getClassMap(ns);
+        StringBuilder builder = new StringBuilder(desc.length());
+        int i = 0;
+        while (i < desc.length()) {
+            char c = desc.charAt(i);
+            builder.append(c);
+            i++;
+            if (c == 'L') {
+                int end = desc.indexOf(';', i);
+                String name = desc.substring(i, end);
+                builder.append(classes.getOrDefault(name, name)).append(';');
+                i = end + 1;
+            }
+        }
+        return builder.toString();
+    }
+
+    private Map<String, String> getClassMap(int ns) {
+        synchronized (descMappers) {
+            return descMappers.computeIfAbsent(ns, e -> {
+                Map<String, String> map = new HashMap<>(classCount * 2);
+                for (int i = 0; i < classCount; i++) {
+                    map.put(getClassName(i, 0), getClassName(i, ns));
+                }
+                return map;
+            });
+        }
+    }
+
+    private String getString(int id) {
+        String str = strings[id];
+        if (str == null) {
+            int start = buffer.getInt(offsetsStart + id * 4);
+            int end = buffer.getInt(offsetsStart + id * 4 + 4);
+            byte[] bytes = new byte[end - start];
+            ByteBuffer buf = buffer.duplicate();
+            buf.position(stringsStart + start);
+            buf.get(bytes);
+            str = new String(bytes, UTF_8);
+            strings[id] = str;
+        }
+        return str;
+    }
+
+    private static String getValidator(File source) {
+        return "meta:" + source.length() + ":" + source.lastModified();
+    }
+
+    /**
+     * Receives the classes of {@link #accept}.
+     */
+    public interface ClassVisitor {
+
+        /**
+         * @param from     The name in the source namespace.
+         * @param to       The name in the target namespace.
+         * @param declared If the class has a mapping of its own, rather than only owning members.
+         */
+        void visitClass(String from, String to, boolean declared);
+    }
+
+    /**
+     * Receives the fields and methods of {@link #accept}.
+     */
+    public interface MemberVisitor {
+
+        /**
+         * @param method  If this is a method, rather than a field.
+         * @param owner   The owner in the source namespace.
+         * @param name    The name in the source namespace.
+         * @param desc    The descriptor in the source namespace.
+         * @param ownerTo The owner in the target namespace.
+         * @param nameTo  The name in the target namespace.
+         * @param descTo  The descriptor in the target namespace, only mapped when asked for.
+         */
+        void visitMember(boolean method, String owner, String name, String desc, String ownerTo, String nameTo, Supplier<String> descTo);
+    }
+
+    /**
+     * Parses a tiny v1 file and lays it out in the compiled format.
+     */
+    private static class Compiler {
+
+        private final Map<String, Integer> stringIds = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final Map<String, ClassEntry> classes = new LinkedHashMap<>();
+        private int[] namespaces;
+
+        private void parse(IndexTokenizer tokenizer) throws IOException {
+            if (!tokenizer.nextLine()) {
+                throw tokenizer.error("Empty mappings file.");
+            }
+            List<String> header = split(tokenizer);
+            if (header.size() < 3 || !header.get(0).equals("v1")) {
+                throw tokenizer.error("Invalid mapping version: '" + header.get(0) + "'!");
+            }
+            namespaces = new int[header.size() - 1];
+            for (int i = 0; i < namespaces.length; i++) {
+                namespaces[i] = intern(header.get(i + 1));
+            }
+            while (tokenizer.nextLine()) {
+                List<String> params = split(tokenizer);
+                switch (params.get(0)) {
+                    case "CLASS": {
+                        ClassEntry entry = getClass(params.get(1));
+                        entry.declared = true;
+                        entry.names = names(params, 1);
+                        break;
+                    }
+                    case "FIELD":
+                    case "METHOD": {
+                        if (params.size() < 4) {
+                            throw tokenizer.error("Invalid member line.");
+                        }
+                        ClassEntry owner = getClass(params.get(1));
+                        int[] member = new int[namespaces.length + 1];
+                        member[0] = intern(params.get(2));
+                        System.arraycopy(names(params, 3), 0, member, 1, namespaces.length);
+                        (params.get(0).equals("FIELD") ? owner.fields : owner.methods).add(member);
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void write(DataOutputStream out, String validator) throws IOException {
+            List<ClassEntry> classes = new ArrayList<>(this.classes.values());
+            int fieldCount = classes.stream().mapToInt(e -> e.fields.size()).sum();
+            int methodCount = classes.stream().mapToInt(e -> e.methods.size()).sum();
+
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            byte[] validatorBytes = validator.getBytes(UTF_8);
+            out.writeShort(validatorBytes.length);
+            out.write(validatorBytes);
+            out.writeInt(namespaces.length);
+            out.writeInt(strings.size());
+            out.writeInt(classes.size());
+            out.writeInt(fieldCount);
+            out.writeInt(methodCount);
+            for (int ns : namespaces) {
+                out.writeInt(ns);
+            }
+            ByteArrayOutputStream table = new ByteArrayOutputStream();
+            out.writeInt(0);
+            for (String str : strings) {
+                table.write(str.getBytes(UTF_8));
+                out.writeInt(table.size());
+            }
+            int field = 0;
+            int method = 0;
+            for (ClassEntry entry : classes) {
+                out.writeInt(entry.declared ? FLAG_DECLARED : 0);
+                out.writeInt(field);
+                out.writeInt(entry.fields.size());
+                out.writeInt(method);
+                out.writeInt(entry.methods.size());
+                for (int name : entry.names) {
+                    out.writeInt(name);
+                }
+                field += entry.fields.size();
+                method += entry.methods.size();
+            }
+            for (int i = 0; i < classes.size(); i++) {
+                writeMembers(out, i, classes.get(i).fields);
+            }
+            for (int i = 0; i < classes.size(); i++) {
+                writeMembers(out, i, classes.get(i).methods);
+            }
+            table.writeTo(out);
+        }
+
+        private static void writeMembers(DataOutputStream out, int owner, List<int[]> members) throws IOException {
+            for (int[] member : members) {
+                out.writeInt(owner);
+                for (int id : member) {
+                    out.writeInt(id);
+                }
+            }
+        }
+
+        private ClassEntry getClass(String name) {
+            return classes.computeIfAbsent(name, e -> {
+                ClassEntry entry = new ClassEntry();
+                entry.names = new int[namespaces.length];
+                Arrays.fill(entry.names, intern(name));
+                return entry;
+            });
+        }
+
+        //Missing names fall back to the previous namespace.
+        private int[] names(List<String> params, int start) {
+            int[] names = new int[namespaces.length];
+            for (int i = 0; i < names.length; i++) {
+                String name = start + i < params.size() ? params.get(start + i) : "";
+                names[i] = name.isEmpty() && i > 0 ? names[i - 1] : intern(name);
+            }
+            return names;
+        }
+
+        private int intern(String str) {
+            return stringIds.computeIfAbsent(str, e -> {
+                strings.add(e);
+                return strings.size() - 1;
+            });
+        }
+
+        private static List<String> split(IndexTokenizer tokenizer) {
+            List<String> split = new ArrayList<>();
+            int start = tokenizer.getLineStart();
+            int end = tokenizer.getLineEnd();
+            while (true) {
+                int tab = tokenizer.indexOf('\t', start, end);
+                if (tab == -1) {
+                    split.add(tokenizer.getString(start, end));
+                    return split;
+                }
+                split.add(tokenizer.getString(start, tab));
+                start = tab + 1;
+            }
+        }
+    }
+
+    private static class ClassEntry {
+
+        private boolean declared;
+        private int[] names;
+        private final List<int[]> fields = new ArrayList<>();
+        private final List<int[]> methods = new ArrayList<>();
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.data;
+
+import com.google.common.hash.HashCode;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A compact, memory mapped, binary snapshot of a parsed index file.
+ *
+ * Written next to the source as {@code <source>.<version>.bin}, see {@link VersionedFiles}. Each record has a fixed number
+ * of string columns, a long value and a fixed width raw hash, stored as fixed width
+ * records pointing into a shared UTF-8 string table. Loading is a single mmap, records
+ * are decoded only when read.
+ *
+ * Snapshots are tied to the source they were parsed from, by its size and modified
+ * time, and its ETag if one was saved alongside it by a download.
+ * A snapshot that doesn't match its source is ignored.
+ * <pre>
+ * Header:
+ *  int    magic
+ *  int    format version
+ *  short  source validator length
+ *  byte[] source validator, UTF-8
+ *  int    string column count
+ *  int    hash width in bytes
+ *  int    record count
+ * Records:
+ *  per column: int string offset, int string length
+ *  long   value
+ *  byte[] hash
+ * String table:
+ *  UTF-8 bytes
+ * </pre>
+ */
+public class IndexSnapshot {
+
+    private static final Logger logger = Logging.getLogger("IndexSnapshot");
+
+    private static final int MAGIC = 0x534D4958;//SMIX
+    private static final int FORMAT_VERSION = 1;
+
+    private final ByteBuffer buffer;
+    private final int columns;
+    private final int hashWidth;
+    private final int count;
+    private final int recordSize;
+    private final int recordsStart;
+    private final int stringsStart;
+
+    private IndexSnapshot(ByteBuffer buffer, int columns, int hashWidth, int count, int recordsStart) {
+        this.buffer = buffer;
+        this.columns = columns;
+        this.hashWidth = hashWidth;
+        this.count = count;
+        this.recordsStart = recordsStart;
+        recordSize = recordSize(columns, hashWidth);
+        stringsStart = recordsStart + count * recordSize;
+    }
+
+    /**
+     * Loads the snapshot of the given source file.
+     *
+     * @param source    The source file the snapshot was parsed from.
+     * @param columns   The expected number of string columns.
+     * @param hashWidth The expected hash width.
+     * @return The snapshot, or null if there is none, it is stale, or it doesn't match the expected layout.
+     */
+    public static IndexSnapshot load(File source, int columns, int hashWidth) {
+        if (!source.exists()) {
+            return null;
+        }
+        File file;
+        try {
+            file = VersionedFiles.get(source, getValidator(source));
+        } catch (IOException e) {
+            return null;
+        }
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            byte[] validator = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(validator);
+            if (!getValidator(source).equals(new String(validator, UTF_8))) {
+                return null;
+            }
+            if (buffer.getInt() != columns || buffer.getInt() != hashWidth) {
+                return null;
+            }
+            int count = buffer.getInt();
+            if (buffer.position() + (long) count * recordSize(columns, hashWidth) > buffer.limit()) {
+                return null;
+            }
+            return new IndexSnapshot(buffer, columns, hashWidth, count, buffer.position());
+        } catch (IOException | RuntimeException e) {
+            logger.info("Ignoring unreadable index snapshot '{}'.", file, e);
+            return null;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String getString(int record, int column) {
+        int pos = recordsStart + record * recordSize + column * 8;
+        int offset = buffer.getInt(pos);
+        int length = buffer.getInt(pos + 4);
+        ByteBuffer buf = buffer.duplicate();
+        buf.position(stringsStart + offset);
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    public long getValue(int record) {
+        return buffer.getLong(recordsStart + record * recordSize + columns * 8);
+    }
+
+    public HashCode getHash(int record) {
+        ByteBuffer buf = buffer.duplicate();
+        buf.position(recordsStart + record * recordSize + columns * 8 + 8);
+        byte[] bytes = new byte[hashWidth];
+        buf.get(bytes);
+        return HashCode.fromBytes(bytes);
+    }
+
+    /**
+     * Gets the string used to tie a snapshot to its source.
+     * Always the size and modified time of the source, plus the ETag saved by
+     * {@link net.fabricmc.loom.tasks.download.DownloadAction} if there is one.
+     * An ETag alone would outlive a body replaced by a response without one.
+     */
+    private static String getValidator(File source) throws IOException {
+        String meta = "meta:" + source.length() + ":" + source.lastModified();
+        File eTagFile = new File(source.getAbsoluteFile().getParentFile(), source.getName() + ".etag");
+        if (eTagFile.exists()) {
+            return "etag:" + new String(Files.readAllBytes(eTagFile.toPath()), UTF_8) + ";" + meta;
+        }
+        return meta;
+    }
+
+    private static int recordSize(int columns, int hashWidth) {
+        return columns * 8 + 8 + hashWidth;
+    }
+
+    /**
+     * Accumulates records, then writes a snapshot.
+     */
+    public static class Writer {
+
+        private final int columns;
+        private final int hashWidth;
+        private final List<String[]> strings = new ArrayList<>();
+        private final List<Long> values = new ArrayList<>();
+        private final List<byte[]> hashes = new ArrayList<>();
+
+        public Writer(int columns, int hashWidth) {
+            this.columns = columns;
+            this.hashWidth = hashWidth;
+        }
+
+        public Writer add(String[] columns, long value, HashCode hash) {
+            if (columns.length != this.columns) {
+                throw new IllegalArgumentException("Expected " + this.columns + " columns, got " + columns.length);
+            }
+            byte[] bytes = hash != null ? hash.asBytes() : new byte[hashWidth];
+            if (bytes.length != hashWidth) {
+                throw new IllegalArgumentException("Expected " + hashWidth + " byte hash, got " + bytes.length);
+            }
+            strings.add(columns);
+            values.add(value);
+            hashes.add(bytes);
+            return this;
+        }
+
+        /**
+         * Writes the snapshot for the given source file.
+         * Failures are logged and ignored, the snapshot is only an optimization.
+         *
+         * @param source The source file the records were parsed from.
+         */
+        public void write(File source) {
+            File file = null;
+            try {
+                String validator = getValidator(source);
+                file = VersionedFiles.get(source, validator);
+                VersionedFiles.write(source, file, out -> {
+                    ByteArrayOutputStream table = new ByteArrayOutputStream();
+                    out.writeInt(MAGIC);
+                    out.writeInt(FORMAT_VERSION);
+                    byte[] validatorBytes = validator.getBytes(UTF_8);
+                    out.writeShort(validatorBytes.length);
+                    out.write(validatorBytes);
+                    out.writeInt(columns);
+                    out.writeInt(hashWidth);
+                    out.writeInt(strings.size());
+                    for (int i = 0; i < strings.size(); i++) {
+                        for (String str : strings.get(i)) {
+                            byte[] bytes = str.getBytes(UTF_8);
+                            out.writeInt(table.size());
+                            out.writeInt(bytes.length);
+                            table.write(bytes);
+                        }
+                        out.writeLong(values.get(i));
+                        out.write(hashes.get(i));
+                    }
+                    table.writeTo(out);
+                });
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to write index snapshot '{}'.", file != null ? file : source, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A streaming, line based tokenizer for StarMade's plain text index files.
+ *
+ * Works directly on the bytes of the file, numeric and hash fields are parsed
+ * in place without ever becoming Strings. Only fields that are wanted as text
+ * are decoded. Blank lines are skipped, trailing whitespace and CR are ignored.
+ * Errors carry the file and line number.
+ */
+public class IndexTokenizer {
+
+    private final ByteBuffer buffer;
+    private final String source;
+    private int pos;
+    private int lineNumber;
+    private int lineStart;
+    private int lineEnd;
+
+    public IndexTokenizer(ByteBuffer buffer, String source) {
+        this.buffer = buffer;
+        this.source = source;
+        pos = buffer.position();
+    }
+
+    /**
+     * Reads the given file and creates a tokenizer over it.
+     * Read onto the heap rather than mapped, sources are replaced by later downloads,
+     * which fails on Windows while a mapping is still alive.
+     */
+    public static IndexTokenizer open(File file) throws IOException {
+        return new IndexTokenizer(ByteBuffer.wrap(Files.readAllBytes(file.toPath())), file.getPath());
+    }
+
+    /**
+     * Advances to the next non blank line.
+     *
+     * @return False if there are no more lines.
+     */
+    public boolean nextLine() {
+        int limit = buffer.limit();
+        while (pos < limit) {
+            lineNumber++;
+            lineStart = pos;
+            int end = pos;
+            while (end < limit && buffer.get(end) != '\n') {
+                end++;
+            }
+            pos = end + 1;
+            while (end > lineStart && isWhitespace(buffer.get(end - 1))) {
+                end--;
+            }
+            if (end > lineStart) {
+                lineEnd = end;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //@formatter:off
+    public int getLineNumber() { return lineNumber; }
+    public int getLineStart() { return lineStart; }
+    public int getLineEnd() { return lineEnd; }
+    //@formatter:on
+
+    /**
+     * Finds the first occurrence of the given byte in the range.
+     *
+     * @return The index, or -1.
+     */
+    public int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the last occurrence of the given byte in the range.
+     *
+     * @return The index, or -1.
+     */
+    public int lastIndexOf(char c, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (buffer.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes the range as a UTF-8 String.
+     */
+    public String getString(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(from + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Parses the range as a non negative decimal long.
+     */
+    public long parseLong(int from, int to) throws IOException {
+        if (from >= to) {
+            throw error("Expected a number.");
+        }
+        if (to - from > 18) {
+            throw error("Number too large: " + getString(from, to));
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw error("Invalid number: " + getString(from, to));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parses the range as a hex string of exactly the given number of bytes.
+     */
+    public byte[] parseHex(int from, int to, int width) throws IOException {
+        if (to - from != width * 2) {
+            throw error("Expected " + width * 2 + " hex characters, got " + (to - from) + ": " + getString(from, to));
+        }
+        byte[] bytes = new byte[width];
+        for (int i = 0; i < width; i++) {
+            int hi = hexDigit(buffer.get(from + i * 2));
+            int lo = hexDigit(buffer.get(from + i * 2 + 1));
+            if (hi < 0 || lo < 0) {
+                throw error("Invalid hex: " + getString(from, to));
+            }
+            bytes[i] = (byte) (hi << 4 | lo);
+        }
+        return bytes;
+    }
+
+    /**
+     * Creates an exception for the current line.
+     */
+    public IOException error(String message) {
+        return new IOException(source + ":" + lineNumber + ": " + message);
+    }
+
+    private static int hexDigit(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.data;
+
+import com.google.common.hash.HashCode;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads StarMade checksum lists, lines of {@code <name> <size> <sha1>}.
+ * Names may contain spaces. Malformed lines fail with their line number.
+ *
+ * Parsed lists are snapshotted with {@link IndexSnapshot}, later reads of
+ * the same unchanged list come straight from the snapshot.
+ */
+public class StarMadeChecksums {
+
+    private static final int COLUMNS = 1;
+    private static final int HASH_WIDTH = 20;
+
+    /**
+     * Reads every entry of the given checksum list.
+     *
+     * @param file     The checksum list.
+     * @param consumer Called for each entry, in file order.
+     */
+    public static void read(File file, EntryConsumer consumer) throws IOException {
+        IndexSnapshot snapshot = IndexSnapshot.load(file, COLUMNS, HASH_WIDTH);
+        if (snapshot != null) {
+            for (int i = 0; i < snapshot.size(); i++) {
+                consumer.accept(snapshot.getString(i, 0), snapshot.getValue(i), snapshot.getHash(i));
+            }
+            return;
+        }
+        IndexSnapshot.Writer writer = new IndexSnapshot.Writer(COLUMNS, HASH_WIDTH);
+        IndexTokenizer tokenizer = IndexTokenizer.open(file);
+        while (tokenizer.nextLine()) {
+            //Names may contain spaces, the size and hash are the last two fields.
+            int start = tokenizer.getLineStart();
+            int end = tokenizer.getLineEnd();
+            int hashSep = tokenizer.lastIndexOf(' ', start, end);
+            int sizeSep = hashSep > start ? tokenizer.lastIndexOf(' ', start, hashSep) : -1;
+            if (sizeSep <= start) {
+                throw tokenizer.error("Expected '<name> <size> <sha1>'.");
+            }
+            HashCode hash = HashCode.fromBytes(tokenizer.parseHex(hashSep + 1, end, HASH_WIDTH));
+            long size = tokenizer.parseLong(sizeSep + 1, hashSep);
+            String name = tokenizer.getString(start, sizeSep);
+            writer.add(new String[] { name }, size, hash);
+            consumer.accept(name, size, hash);
+        }
+        writer.write(file);
+    }
+
+    public interface EntryConsumer {
+
+        void accept(String name, long size, HashCode hash) throws IOException;
+    }
+}
@@ -24,14 +24,12 @@
 
 package net.fabricmc.loom.data;
 
-import com.google.common.base.Strings;
 import com.google.common.hash.HashCode;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import net.fabricmc.loom.util.MavenNotation;
 import net.fabricmc.loom.util.Utils;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 
@@ -71,25 +69,18 @@ public class VersionInfoJson {
             id = baseUrl.getPath().substring(baseUrl.getPath().lastIndexOf("starmade-build") + 15, baseUrl.getPath().lastIndexOf("/"));
         }};
 
-        FileUtils.readLines(file, "UTF-8").stream()
-            .filter(entry -> !Strings.isNullOrEmpty(entry))
-            .forEach(entry -> {
-                try{
-                    String[] tokens = entry.split(" ");
-                    String name = entry.substring(0, entry.length() - tokens[tokens.length - 1].length() - tokens[tokens.length - 2].length() - 2);
-                    if(tokens[0].startsWith("./data/")) {
-                        return; // ignore
-                    } else  if(name.toLowerCase().endsWith(".jar") || name.toLowerCase().startsWith("./native/")) {
-                        versionInfo.downloads.put(name.substring(2),
-                        versionInfo.new Download() {{
-                                url = new URL(baseUrl, baseUrl.getPath() + tokens[0]);
-                                sha1 = HashCode.fromString(tokens[2]);
-                            }});
-                    }
-                }
-                catch(Exception e) { e.printStackTrace(); }
-            });
-
+        StarMadeChecksums.read(file, (name, size, hash) -> {
+            if (name.startsWith("./data/")) {
+                return; // ignore
+            }
+            String lower = name.toLowerCase();
+            if (lower.endsWith(".jar") || lower.startsWith("./native/")) {
+                Download download = versionInfo.new Download();
+                download.url = new URL(baseUrl, baseUrl.getPath() + name);
+                download.sha1 = hash;
+                versionInfo.downloads.put(name.substring(2), download);
+            }
+        });
 
         return versionInfo;
     }
@@ -24,11 +24,8 @@
 
 package net.fabricmc.loom.data;
 
-import com.google.common.base.Strings;
 import com.google.gson.Gson;
 
-import org.apache.commons.io.FileUtils;
-
 import net.fabricmc.loom.NavigatorGradlePlugin;
 import net.fabricmc.loom.util.Utils;
 
@@ -37,7 +34,6 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 /**
  * Created by covers1624 on 5/02/19.
@@ -59,25 +55,49 @@ public class VersionManifestJson {
         return Utils.fromJson(gson, file, VersionManifestJson.class);
     }
 
-    public static VersionManifestJson fromStarMadeIndex(File file) throws IOException{
+    public static VersionManifestJson fromStarMadeIndex(File file) throws IOException {
         VersionManifestJson manifest = new VersionManifestJson();
 
-        manifest.versions = FileUtils.readLines(file, "UTF-8").stream()
-            .filter(entry -> !Strings.isNullOrEmpty(entry))
-            .map(entry -> {
-                String[] tokens = entry.split(" ");
-                String[] build_id = tokens[0].split("#");
-                return new Version() {{
-                    id = build_id[0];
-                    releaseTime = build_id[1];
-                    url = NavigatorGradlePlugin.RESOURCES_URL + tokens[1] + "/";
-                }};
-            })
-            .collect(Collectors.toList());
+        //id, releaseTime, path
+        IndexSnapshot snapshot = IndexSnapshot.load(file, 3, 0);
+        if (snapshot != null) {
+            for (int i = 0; i < snapshot.size(); i++) {
+                manifest.versions.add(newStarMadeVersion(snapshot.getString(i, 0), snapshot.getString(i, 1), snapshot.getString(i, 2)));
+            }
+            return manifest;
+        }
+
+        IndexSnapshot.Writer writer = new IndexSnapshot.Writer(3, 0);
+        IndexTokenizer tokenizer = IndexTokenizer.open(file);
+        while (tokenizer.nextLine()) {
+            //<id>#<releaseTime> <path>
+            int start = tokenizer.getLineStart();
+            int end = tokenizer.getLineEnd();
+            int space = tokenizer.indexOf(' ', start, end);
+            int hash = space > 0 ? tokenizer.indexOf('#', start, space) : -1;
+            if (hash <= start) {
+                throw tokenizer.error("Expected '<id>#<releaseTime> <path>'.");
+            }
+            String id = tokenizer.getString(start, hash);
+            String releaseTime = tokenizer.getString(hash + 1, space);
+            int pathEnd = tokenizer.indexOf(' ', space + 1, end);
+            String path = tokenizer.getString(space + 1, pathEnd != -1 ? pathEnd : end);
+            writer.add(new String[] { id, releaseTime, path }, 0, null);
+            manifest.versions.add(newStarMadeVersion(id, releaseTime, path));
+        }
+        writer.write(file);
 
         return manifest;
     }
 
+    private static Version newStarMadeVersion(String id, String releaseTime, String path) {
+        Version version = new Version();
+        version.id = id;
+        version.releaseTime = releaseTime;
+        version.url = NavigatorGradlePlugin.RESOURCES_URL + path + "/";
+        return version;
+    }
+
     public static class Latest {
 
         public String release;
@@ -0,0 +1,120 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.data;
+
+import net.fabricmc.loom.util.ThrowingConsumer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Names and writes the immutable sidecar files that are memory mapped,
+ * {@link IndexSnapshot} and {@link CompiledMappings}.
+ *
+ * A mapped file can't be replaced or deleted on Windows while it is still mapped, and
+ * mappings live until they are garbage collected. So a sidecar is never rewritten, each
+ * version of its source gets its own file, named after a hash of the source's validator.
+ * Older versions are deleted once a new one is written, failures are ignored, they are
+ * retried next time.
+ *
+ * Must not depend on the Gradle API, it is also used outside of Gradle.
+ */
+class VersionedFiles {
+
+    private static final String EXTENSION = ".bin";
+
+    /**
+     * Gets the sidecar of the given source, for the given validator.
+     */
+    static File get(File source, String validator) {
+        return new File(source.getAbsoluteFile().getParentFile(), source.getName() + "." + hash(validator) + EXTENSION);
+    }
+
+    /**
+     * Writes the given sidecar, if it doesn't already exist.
+     *
+     * @param source The source file.
+     * @param file   The sidecar, from {@link #get}.
+     * @param writer Writes the content.
+     */
+    static void write(File source, File file, ThrowingConsumer<DataOutputStream, IOException> writer) throws IOException {
+        if (!file.exists()) {
+            Path dir = file.getAbsoluteFile().getParentFile().toPath();
+            Path tmp = Files.createTempFile(dir, file.getName(), ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                    writer.accept(out);
+                }
+                try {
+                    Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    //Written by someone else in the meantime, same version, same content.
+                    if (!file.exists()) {
+                        throw e;
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        deleteOthers(source, file);
+    }
+
+    //Other versions, and the unversioned sidecar written before versioning.
+    private static void deleteOthers(File source, File keep) {
+        File dir = source.getAbsoluteFile().getParentFile();
+        Pattern pattern = Pattern.compile(Pattern.quote(source.getName()) + "(\\.[0-9a-f]{16})?" + Pattern.quote(EXTENSION));
+        File[] files = dir.listFiles((d, name) -> pattern.matcher(name).matches() && !name.equals(keep.getName()));
+        if (files != null) {
+            for (File file : files) {
+                //Fails while still mapped on Windows.
+                file.delete();
+            }
+        }
+    }
+
+    private static String hash(String validator) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(validator.getBytes(UTF_8));
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                builder.append(String.format("%02x", digest[i]));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -24,6 +24,7 @@
 
 package net.fabricmc.loom.mixin;
 
+import net.fabricmc.loom.data.CompiledMappings;
 import net.fabricmc.tinyremapper.TinyUtils;
 import org.spongepowered.asm.obfuscation.mapping.common.MappingField;
 import org.spongepowered.asm.obfuscation.mapping.common.MappingMethod;
@@ -31,6 +32,7 @@ import org.spongepowered.tools.obfuscation.mapping.common.MappingProvider;
 
 import javax.annotation.processing.Filer;
 import javax.annotation.processing.Messager;
+import javax.tools.Diagnostic;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
@@ -126,6 +128,12 @@ public class MixinMappingProviderTiny extends MappingProvider {
 
     @Override
     public void read(File input) throws IOException {
+        try {
+            read(CompiledMappings.loadOrCompile(input));
+            return;
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.WARNING, "Unable to compile mappings '" + input + "', parsing them instead: " + e);
+        }
         try (BufferedReader reader = Files.newBufferedReader(input.toPath())) {
             TinyUtils.read(reader, from, to, classMap::put, (fieldFrom, desc) -> {
                 fieldMap.put(//
@@ -140,4 +148,18 @@ public class MixinMappingProviderTiny extends MappingProvider {
             });
         }
     }
+
+    private void read(CompiledMappings compiled) {
+        compiled.accept(from, to, (name, nameTo, declared) -> {
+            if (declared) {
+                classMap.put(name, nameTo);
+            }
+        }, (method, owner, name, desc, ownerTo, nameTo, descTo) -> {
+            if (method) {
+                methodMap.put(new MappingMethod(owner, name, desc), new MappingMethod(ownerTo, nameTo, descTo.get()));
+            } else {
+                fieldMap.put(new MappingField(owner, name, desc), new MappingField(ownerTo, nameTo, descTo.get()));
+            }
+        });
+    }
 }
@@ -0,0 +1,96 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks;
+
+import net.fabricmc.loom.data.AssetIndexJson.AssetObject;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * A plan to move an asset layout from one version to another.
+ *
+ * Built by diffing the manifest of what is currently laid out against the
+ * new asset index. Each path ends up in exactly one of:
+ * <pre>
+ *  keep   - Same path, same hash. Only needs the usual cheap verification.
+ *  copy   - New or changed path whose content is already available locally.
+ *  fetch  - New or changed path whose content has to be downloaded.
+ *  delete - Path no longer present in the new version.
+ * </pre>
+ */
+public class AssetSyncPlan {
+
+    public final Set<String> keep = new HashSet<>();
+    public final Set<String> copy = new HashSet<>();
+    public final Set<String> fetch = new HashSet<>();
+    public final Set<String> delete = new HashSet<>();
+
+    public long bytesReused;
+    public long bytesToFetch;
+
+    /**
+     * Builds a plan.
+     *
+     * @param previous  The manifest of the current layout, path to hash.
+     * @param next      The new layout, path to asset.
+     * @param available Tests if content with the given hash is available locally.
+     * @return The plan.
+     */
+    public static AssetSyncPlan plan(Map<String, String> previous, Map<String, AssetObject> next, Predicate<String> available) {
+        AssetSyncPlan plan = new AssetSyncPlan();
+        //Identical content at multiple paths is only fetched once.
+        Set<String> fetching = new HashSet<>();
+        next.forEach((path, object) -> {
+            if (object.hash.equals(previous.get(path))) {
+                plan.keep.add(path);
+                plan.bytesReused += object.size;
+            } else if (fetching.contains(object.hash) || available.test(object.hash)) {
+                plan.copy.add(path);
+                plan.bytesReused += object.size;
+            } else {
+                fetching.add(object.hash);
+                plan.fetch.add(path);
+                plan.bytesToFetch += object.size;
+            }
+        });
+        for (String path : previous.keySet()) {
+            if (!next.containsKey(path)) {
+                plan.delete.add(path);
+            }
+        }
+        return plan;
+    }
+
+    public boolean isNoop() {
+        return copy.isEmpty() && fetch.isEmpty() && delete.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("keep %d, copy %d, fetch %d (%d KB), delete %d. Reusing %d KB.",//
+                keep.size(), copy.size(), fetch.size(), bytesToFetch / 1024, delete.size(), bytesReused / 1024);
+    }
+}
@@ -24,49 +24,68 @@
 
 package net.fabricmc.loom.tasks;
 
-import com.google.common.hash.Hasher;
+import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 import net.fabricmc.loom.data.AssetIndexFormat;
 import net.fabricmc.loom.data.AssetIndexJson;
 import net.fabricmc.loom.tasks.download.DownloadAction;
-import net.fabricmc.loom.util.Utils;
+import net.fabricmc.loom.tasks.download.DownloadScheduler;
+import net.fabricmc.loom.tasks.download.SharedHttpClient;
+import net.fabricmc.loom.util.FileHashCache;
+import net.fabricmc.loom.util.ObjectStore;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.internal.project.ProjectInternal;
+import org.gradle.api.logging.Logger;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.OutputFiles;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
 import org.gradle.internal.logging.progress.ProgressLogger;
 import org.gradle.internal.logging.progress.ProgressLoggerFactory;
 import org.gradle.internal.service.ServiceRegistry;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import static java.text.MessageFormat.format;
-import static net.fabricmc.loom.util.Utils.sneaky;
+import static net.fabricmc.loom.util.Utils.throwUnchecked;
 
 /**
  * Created by covers1624 on 5/02/19.
  */
 public abstract class DownloadAssetsTask extends DefaultTask {
 
+    //Hashing is mostly bound by disk, more threads than this just thrash.
+    private static final int MAX_VERIFY_THREADS = 4;
+
     private Object assetIndex;
     private File assetsDir;
     private List<File> outputFiles = new ArrayList<>();
     private AssetIndexFormat assetIndexFormat = AssetIndexFormat.JSON;
+    private boolean verifyAssets;
+    private boolean useObjectStore;
+    private int minConcurrency = 2;
+    private int maxConcurrency = 32;
+    private long bandwidthLimit;
 
-    private transient Map<String, DownloadAction> toExecute = new HashMap<>();
+    private transient List<Asset> assets = new ArrayList<>();
     private transient AssetIndexJson assetIndexJson;
+    private transient String indexName;
 
     public DownloadAssetsTask() {
 
         onlyIf(e -> {
-            //Use this onlyIf section to lazy resolve the DownloadAction's and declare outputs.
+            //Use this onlyIf section to lazy resolve the assets and declare outputs.
             resolve();
             return true;
         });
@@ -87,43 +106,261 @@ public abstract class DownloadAssetsTask extends DefaultTask {
         Stack<ProgressLogger> freeLoggers = new Stack<>();
         ProgressLogger statusLogger = loggerFactory.get();
         statusLogger.progress("Waiting..");
-        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-        //submit all actions to the executor.
-        toExecute.forEach((name, action) ->//
-                executor.submit(() -> {
+
+        //Mojang still uses SHA1 for their assets.
+        @SuppressWarnings ("deprecation")
+        FileHashCache hashCache = FileHashCache.load(new File(assetsDir, "verified_assets.json"), "sha1", Hashing.sha1());
+        AtomicInteger verified = new AtomicInteger();
+        AtomicInteger queued = new AtomicInteger();
+        AtomicInteger downloaded = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        //Downloads are network bound, the scheduler finds the right concurrency as it goes.
+        //Every download thread gets its own kept alive connection.
+        SharedHttpClient.get(getProject()).ensureMaxPerRoute(maxConcurrency);
+        DownloadScheduler scheduler = new DownloadScheduler(minConcurrency, maxConcurrency, bandwidthLimit);
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService verifyExecutor = Executors.newFixedThreadPool(Math.min(threads, MAX_VERIFY_THREADS));
+        //Nothing may leave worker threads behind, whatever fails.
+        try {
+            //Objects are only shared when using the store, identical assets are fetched once and linked everywhere.
+            ObjectStore store = useObjectStore ? new ObjectStore(new File(assetsDir, "store")) : null;
+            Map<String, Object> objectLocks = new ConcurrentHashMap<>();
+            Map<String, List<Asset>> pendingObjects = new ConcurrentHashMap<>();
+            AtomicInteger reused = new AtomicInteger();
+            Consumer<Asset> download = asset -> {
+                queued.incrementAndGet();
+                scheduler.submit(asset.object.size, () -> {
+                    String hash = asset.object.hash;
+                    if (store != null) {
+                        try {
+                            synchronized (objectLocks.computeIfAbsent(hash, e -> new Object())) {
+                                List<Asset> waiting = pendingObjects.get(hash);
+                                if (waiting != null) {
+                                    //Already being fetched for another path, it'll be linked once it lands.
+                                    waiting.add(asset);
+                                    downloaded.incrementAndGet();
+                                    return 0L;
+                                }
+                                File object = store.getObject(hash);
+                                if (object.exists() && hashCache.getHash(object).toString().equals(hash)) {
+                                    linkObject(store, hashCache, asset);
+                                    reused.incrementAndGet();
+                                    downloaded.incrementAndGet();
+                                    return 0L;
+                                }
+                                //Corrupt or missing, a sealed object has to go before it can be replaced.
+                                hashCache.remove(object);
+                                store.remove(hash);
+                                pendingObjects.put(hash, new ArrayList<>(Collections.singletonList(asset)));
+                            }
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                            downloaded.incrementAndGet();
+                            return 0L;
+                        }
+                    }
                     ProgressLogger logger;
                     //attempt to pop a free logger from the stack.
-                    if (!freeLoggers.isEmpty()) {
-                        synchronized (freeLoggers) {
-                            logger = freeLoggers.pop();
-                        }
-                    } else {
+                    synchronized (freeLoggers) {
+                        logger = !freeLoggers.isEmpty() ? freeLoggers.pop() : null;
+                    }
+                    if (logger == null) {
                         //no free loggers, make one.
                         logger = loggerFactory.get();
                     }
-                    logger.progress(name);
+                    logger.progress(asset.name);
+                    DownloadAction action = asset.newAction(store);
                     //Create a wrapper over DownloadAction's wrapper.
                     //progressGroup > logger > wrapper
                     //downoadAction > asset > progress
-                    action.setProgressLogger(factory.newOperation(getClass(), logger).setDescription(name));
-                    sneaky(action::execute);//do the do
-                    action.setProgressLogger(null);
+                    action.setProgressLogger(factory.newOperation(getClass(), logger).setDescription(asset.name));
+                    action.setRateLimiter(scheduler.getRateLimiter());
+                    Throwable error = null;
+                    try {
+                        action.execute();//do the do
+                        //Verified while downloading, no need to read it again next build.
+                        if (action.getDownloadedHash() != null) {
+                            hashCache.put(action.getDest(), action.getDownloadedHash());
+                        }
+                        if (store != null) {
+                            List<Asset> waiting;
+                            synchronized (objectLocks.get(hash)) {
+                                waiting = pendingObjects.remove(hash);
+                            }
+                            store.seal(hash);
+                            for (Asset a : waiting) {
+                                linkObject(store, hashCache, a);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        pendingObjects.remove(hash);
+                        failure.compareAndSet(null, t);
+                        error = t;
+                    }
+                    downloaded.incrementAndGet();
                     logger.progress("Idle..");
                     synchronized (freeLoggers) {//push the free logger back to the stack.
                         freeLoggers.push(logger);
                     }
-                }));
-        //Trigger a soft shutodown of the executor.
-        executor.shutdown();
-        int max = (int) executor.getTaskCount();
-        //while it hasn't finished, update our fancy logger.
-        while (!executor.awaitTermination(200, TimeUnit.MILLISECONDS)) {
-            int done = (int) executor.getCompletedTaskCount();
-            statusLogger.progress(format("Completed: {0}/{1}   {2}%", done, max, (int) ((double) done / max * 100)));
+                    if (error != null) {
+                        //Let the scheduler know so it backs off.
+                        throw error;
+                    }
+                    return action.isUpToDate() ? 0L : asset.object.size;
+                });
+            };
+            //Largest first, the big files are the long tail for both hashing and downloading.
+            List<Asset> sorted = new ArrayList<>(assets);
+            sorted.sort(Comparator.comparingLong((Asset e) -> e.object.size).reversed());
+            AssetSyncPlan plan = store != null && !verifyAssets ? planSync(store) : null;
+            for (Asset asset : sorted) {
+                if (!asset.output.exists() || plan != null && plan.fetch.contains(asset.path)) {
+                    //Nothing to verify, straight to the downloader.
+                    verified.incrementAndGet();
+                    download.accept(asset);
+                    continue;
+                }
+                if (plan != null && plan.copy.contains(asset.path)) {
+                    //Changed, but the new content is already in the store, link it on the verify pool.
+                    verifyExecutor.submit(() -> {
+                        try {
+                            File object = store.getObject(asset.object.hash);
+                            if (object.exists() && hashCache.getHash(object).toString().equals(asset.object.hash)) {
+                                linkObject(store, hashCache, asset);
+                                reused.incrementAndGet();
+                            } else {
+                                //Missing or being fetched for another path, the downloader sorts it out.
+                                download.accept(asset);
+                            }
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        }
+                        verified.incrementAndGet();
+                    });
+                    continue;
+                }
+                //Verify on a separate pool, anything that fails is handed
+                //to the downloader as soon as its found, so hashing and
+                //downloading overlap.
+                verifyExecutor.submit(() -> {
+                    try {
+                        //Unless we are verifying everything, files whose size, timestamp and inode
+                        //haven't changed since we last hashed them are trusted without reading them.
+                        HashCode hash = verifyAssets ? hashCache.rehash(asset.output) : hashCache.getHash(asset.output);
+                        if (!hash.toString().equals(asset.object.hash)) {
+                            //File is corrupt.
+                            hashCache.remove(asset.output);
+                            download.accept(asset);
+                        } else if (store != null) {
+                            //Seed the store from files that predate it.
+                            store.adopt(asset.object.hash, asset.output);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                    verified.incrementAndGet();
+                });
+            }
+            //Once verification is done, nothing else will be queued for download.
+            verifyExecutor.shutdown();
+            while (!verifyExecutor.awaitTermination(200, TimeUnit.MILLISECONDS)) {
+                statusLogger.progress(format("Verified: {0}/{1}   Downloaded: {2}/{3}", verified.get(), sorted.size(), downloaded.get(), queued.get()));
+            }
+            //Trigger a soft shutodown of the scheduler.
+            scheduler.shutdown();
+            int max = queued.get();
+            //while it hasn't finished, update our fancy logger.
+            while (!scheduler.awaitTermination(200, TimeUnit.MILLISECONDS)) {
+                int done = downloaded.get();
+                statusLogger.progress(format("Completed: {0}/{1}   {2}%   Connections: {3}", done, max, (int) ((double) done / max * 100), scheduler.getLimit()));
+            }
+            if (store != null && failure.get() == null) {
+                //Only once everything is in place, a failed sync leaves the old layout usable.
+                if (plan != null) {
+                    deleteStale(assetsDir, plan, hashCache, getLogger());
+                }
+                Map<String, String> manifest = new HashMap<>();
+                for (Asset asset : assets) {
+                    manifest.put(asset.path, asset.object.hash);
+                }
+                //What is now laid out, the next sync diffs against this whatever its index.
+                store.writeManifest(indexName, manifest);
+                store.setCurrentManifest(indexName);
+                if (reused.get() > 0) {
+                    getLogger().lifecycle("Linked {} assets from the object store.", reused.get());
+                }
+            }
+            hashCache.save();
+        } finally {
+            verifyExecutor.shutdownNow();
+            scheduler.shutdownNow();
         }
         statusLogger.completed();
         freeLoggers.forEach(ProgressLogger::completed);
         progressGroup.completed();
+        if (failure.get() != null) {
+            throwUnchecked(failure.get());
+        }
+    }
+
+    /**
+     * Links an asset from the store and records its hash, the object was verified just before,
+     * so the linked path doesn't need hashing again next build.
+     */
+    private static void linkObject(ObjectStore store, FileHashCache hashCache, Asset asset) throws IOException {
+        store.link(asset.object.hash, asset.output);
+        hashCache.put(asset.output, HashCode.fromString(asset.object.hash));
+    }
+
+    /**
+     * Diffs the current layout against the assets being resolved, logging the plan.
+     *
+     * @return The plan, or null if nothing has been laid out through the store before.
+     */
+    private AssetSyncPlan planSync(ObjectStore store) {
+        Map<String, AssetIndexJson.AssetObject> next = new HashMap<>();
+        for (Asset asset : assets) {
+            next.put(asset.path, asset.object);
+        }
+        AssetSyncPlan plan = planSync(store, indexName, next);
+        if (plan != null && !plan.isNoop()) {
+            getLogger().lifecycle("Asset sync: {}", plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Diffs the assets laid out by the last sync, of whichever index, against the given ones.
+     * Most asset paths are shared between versions, so a version switch only touches what changed.
+     *
+     * @param store     The store.
+     * @param indexName The name of the index being synced.
+     * @param next      The assets being resolved, path to asset.
+     * @return The plan, or null if nothing has been laid out through the store before.
+     */
+    static AssetSyncPlan planSync(ObjectStore store, String indexName, Map<String, AssetIndexJson.AssetObject> next) {
+        String current = store.getCurrentManifest();
+        //Stores from before the current layout was recorded only know each index's own manifest.
+        Map<String, String> previous = store.readManifest(current != null ? current : indexName);
+        if (previous == null) {
+            return null;
+        }
+        return AssetSyncPlan.plan(previous, next, hash -> store.getObject(hash).exists());
+    }
+
+    /**
+     * Deletes paths the previous layout had that the new one doesn't.
+     * Their content stays in the store, switching back only links it into place again.
+     */
+    static void deleteStale(File assetsDir, AssetSyncPlan plan, FileHashCache hashCache, Logger logger) {
+        for (String path : plan.delete) {
+            File file = new File(assetsDir, path);
+            hashCache.remove(file);
+            if (file.exists() && !file.delete()) {
+                logger.warn("Failed to delete stale asset '{}'.", file);
+            }
+        }
     }
 
     protected abstract String getAssetUrl(String name, AssetIndexJson.AssetObject object);
@@ -135,7 +372,7 @@ public abstract class DownloadAssetsTask extends DefaultTask {
             return;
         }
         File assetIndex = getAssetIndex();
-        String indexName = Files.getNameWithoutExtension(assetIndex.getName());
+        indexName = Files.getNameWithoutExtension(assetIndex.getName());
         if (assetIndexFormat == AssetIndexFormat.JSON) {
                 assetIndexJson = AssetIndexJson.fromJson(assetIndex);
         } else if (assetIndexFormat == AssetIndexFormat.STARMADE) {
@@ -146,8 +383,6 @@ public abstract class DownloadAssetsTask extends DefaultTask {
         }
 
         assetIndexJson.objects.forEach((name, object) -> {
-            DownloadAction action = new DownloadAction(getProject());
-
             String loc = getAssetUrl(name, object);
             File out;
             if (!assetIndexJson.virtual) {
@@ -155,24 +390,11 @@ public abstract class DownloadAssetsTask extends DefaultTask {
             } else {
                 out = new File(assetsDir, format("virtual/{0}/{1}", indexName, name));
             }
-
-            action.setSrc(getResourceUrl() + loc);
-            action.setDest(out);
-            action.setQuiet(true);
             //Always declare the outputs.
             outputFiles.add(out);
-            //Check if we need to re download the file.
-            if (out.exists()) {
-                //Mojang still uses SHA1 for their assets.
-                @SuppressWarnings ("deprecation")
-                Hasher hasher = Hashing.sha1().newHasher();
-                Utils.addToHasher(hasher, out);
-                if (hasher.hash().toString().equals(object.hash)) {
-                    return;//from the lambda, basically continue.
-                }
-            }
-            //File doesnt exist or is corrupt.
-            toExecute.put(name, action);
+            //Whether it needs to be downloaded is decided at execution time.
+            String path = assetsDir.toPath().relativize(out.toPath()).toString().replace(File.separatorChar, '/');
+            assets.add(new Asset(name, object, getResourceUrl() + loc, out, path));
         });
     }
 
@@ -182,5 +404,45 @@ public abstract class DownloadAssetsTask extends DefaultTask {
     public void setAssetIndex(Object assetIndex) { this.assetIndex = assetIndex; }
     public void setAssetsDir(File assetsDir) { this.assetsDir = assetsDir; }
     public void setAssetFormat(AssetIndexFormat format) { this.assetIndexFormat = format; }
+    public boolean isVerifyAssets() { return verifyAssets; }
+    public boolean isUseObjectStore() { return useObjectStore; }
+    public void setUseObjectStore(boolean useObjectStore) { this.useObjectStore = useObjectStore; }
+    public int getMinConcurrency() { return minConcurrency; }
+    public int getMaxConcurrency() { return maxConcurrency; }
+    public long getBandwidthLimit() { return bandwidthLimit; }
+    public void setMinConcurrency(int minConcurrency) { this.minConcurrency = minConcurrency; }
+    public void setMaxConcurrency(int maxConcurrency) { this.maxConcurrency = maxConcurrency; }
+    public void setBandwidthLimit(long bandwidthLimit) { this.bandwidthLimit = bandwidthLimit; }
+    @Option (option = "verify-assets", description = "Re-hash every asset, ignoring the verification cache.")
+    public void setVerifyAssets(boolean verifyAssets) { this.verifyAssets = verifyAssets; }
     //@formatter:on
+
+    private class Asset {
+
+        private final String name;
+        private final AssetIndexJson.AssetObject object;
+        private final String url;
+        private final File output;
+        //Relative to the assets dir.
+        private final String path;
+
+        private Asset(String name, AssetIndexJson.AssetObject object, String url, File output, String path) {
+            this.name = name;
+            this.object = object;
+            this.url = url;
+            this.output = output;
+            this.path = path;
+        }
+
+        private DownloadAction newAction(ObjectStore store) {
+            DownloadAction action = new DownloadAction(getProject());
+            action.setSrc(url);
+            //With the store, assets are downloaded into it then linked into place.
+            action.setDest(store != null ? store.getObject(object.hash) : output);
+            action.setQuiet(true);
+            action.setSha1(object.hash);
+            action.setSize(object.size);
+            return action;
+        }
+    }
 }
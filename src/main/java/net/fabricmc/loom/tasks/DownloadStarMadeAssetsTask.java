@@ -26,10 +26,11 @@ package net.fabricmc.loom.tasks;
 
 import net.fabricmc.loom.NavigatorGradlePlugin;
 import net.fabricmc.loom.data.AssetIndexJson.AssetObject;
+import net.fabricmc.loom.util.Utils;
 
 public class DownloadStarMadeAssetsTask extends DownloadAssetsTask {
 
-    public String resourceUrl = NavigatorGradlePlugin.RESOURCES_URL;
+    private Object resourceUrl = NavigatorGradlePlugin.RESOURCES_URL;
 
     @Override
     protected String getAssetUrl(String name, AssetObject object) {
@@ -42,10 +43,10 @@ public class DownloadStarMadeAssetsTask extends DownloadAssetsTask {
     @Override
     public String getResourceUrl()
     {
-        return resourceUrl;
+        return Utils.resolveString(resourceUrl);
     }
 
-    public void setResourceUrl(String resourceUrl)
+    public void setResourceUrl(Object resourceUrl)
     {
         this.resourceUrl = resourceUrl;
     }
@@ -24,6 +24,7 @@
 
 package net.fabricmc.loom.tasks;
 
+import net.fabricmc.loom.data.CompiledMappings;
 import net.fabricmc.loom.tasks.cache.CachedInput;
 import net.fabricmc.loom.tasks.cache.CachedInputTask;
 import net.fabricmc.loom.util.Utils;
@@ -73,6 +74,8 @@ public class ExtractMappingsTask extends CachedInputTask {
         getLogging().captureStandardError(LogLevel.INFO);
         String[] args = { getMergedJar().getAbsolutePath(), getBaseMappings().getAbsolutePath(), getMappings().getAbsolutePath() };
         new CommandProposeFieldNames().run(args);
+        //Consumers load this instead of parsing the text.
+        CompiledMappings.compile(getMappings());
     }
 
     //@formatter:off
@@ -0,0 +1,371 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks;
+
+import com.google.gson.Gson;
+import net.fabricmc.loom.util.Utils;
+import net.fabricmc.stitch.util.StitchUtil;
+import net.fabricmc.tinyremapper.TinyRemapper;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.logging.Logger;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Remaps a jar incrementally, against the output and index of the previous remap.
+ *
+ * The index records the CRC and size of every entry of the last input, as found in the
+ * zip central directory, and the super types and referenced classes of every class.
+ * Changed classes, all of their sub types and every class referencing any of those are
+ * remapped, with every other class of the input on the classpath so member references
+ * through them resolve, everything else is left as is. The previous output is updated in place
+ * through a zip filesystem, which copies untouched entries raw, without recompressing them.
+ *
+ * Any change to the mappings or classpath, tracked by a state key, or a remap renaming
+ * classes, needs a full remap, after which {@link #record} starts a fresh index.
+ */
+public class IncrementalRemapper {
+
+    private static final Gson gson = new Gson();
+    //Bumped when the index gains information, older indexes need a full remap.
+    private static final int INDEX_VERSION = 1;
+    //Constant pool tag of a class constant.
+    private static final int CONSTANT_CLASS = 7;
+    //Past this share of dirty classes, a full remap is cheaper.
+    private static final double MAX_DIRTY = 0.5;
+
+    private final File dir;
+    private final Logger logger;
+
+    public IncrementalRemapper(File dir, Logger logger) {
+        this.dir = dir;
+        this.logger = logger;
+    }
+
+    /**
+     * Attempts an incremental remap.
+     *
+     * @param input     The input jar.
+     * @param output    The output jar, may be the input.
+     * @param stateKey  Identifies the mappings and classpath, any change requires a full remap.
+     * @param remapper  Creates a remapper with its mappings configured.
+     * @param classPath The classpath.
+     * @return False if a full remap is needed, nothing has been written.
+     */
+    public boolean remap(File input, File output, String stateKey, Supplier<TinyRemapper> remapper, Path[] classPath) throws IOException {
+        Index index = loadIndex();
+        File previous = getPreviousOutput();
+        if (index == null || index.version != INDEX_VERSION || !stateKey.equals(index.stateKey) || !previous.exists()) {
+            return false;
+        }
+        File work = new File(dir, "work");
+        FileUtils.deleteDirectory(work);
+        File dirtyDir = new File(work, "dirty");
+        File contextDir = new File(work, "context");
+        Index next = new Index();
+        next.version = INDEX_VERSION;
+        next.stateKey = stateKey;
+        Set<String> changed = new HashSet<>();
+        Map<String, byte[]> resources = new HashMap<>();
+        try (ZipFile zip = new ZipFile(input)) {
+            List<ZipEntry> classEntries = new ArrayList<>();
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                EntryState prev = index.entries.get(entry.getName());
+                EntryState state = new EntryState();
+                state.crc = entry.getCrc();
+                state.size = entry.getSize();
+                boolean isChanged = prev == null || prev.crc != state.crc || prev.size != state.size;
+                if (!entry.getName().endsWith(".class")) {
+                    if (isChanged) {
+                        resources.put(entry.getName(), read(zip, entry));
+                    }
+                } else if (isChanged) {
+                    byte[] bytes = read(zip, entry);
+                    ClassReader reader = new ClassReader(bytes);
+                    state.superName = reader.getSuperName();
+                    state.interfaces = Arrays.asList(reader.getInterfaces());
+                    state.references = getReferences(reader);
+                    changed.add(className(entry.getName()));
+                } else {
+                    state.superName = prev.superName;
+                    state.interfaces = prev.interfaces;
+                    state.references = prev.references;
+                }
+                if (entry.getName().endsWith(".class")) {
+                    classEntries.add(entry);
+                }
+                next.entries.put(entry.getName(), state);
+            }
+            Set<String> removed = new HashSet<>(index.entries.keySet());
+            removed.removeAll(next.entries.keySet());
+            if (changed.isEmpty() && removed.isEmpty() && resources.isEmpty()) {
+                logger.info("Nothing changed, reusing previous output.");
+                copy(previous, output);
+                return true;
+            }
+
+            Set<String> dirty = findDirty(next, changed, removed);
+            if (dirty.size() > classEntries.size() * MAX_DIRTY) {
+                logger.info("{} of {} classes need remapping, falling back to a full remap.", dirty.size(), classEntries.size());
+                return false;
+            }
+            //Every unchanged class goes on the classpath, dirty classes may reference members
+            // of any of them, not just their super types, i.e. a call to an inherited game method.
+            contextDir.mkdirs();
+            for (ZipEntry entry : classEntries) {
+                File dest = dirty.contains(className(entry.getName())) ? dirtyDir : contextDir;
+                File file = new File(dest, entry.getName());
+                file.getParentFile().mkdirs();
+                try (InputStream is = zip.getInputStream(entry)) {
+                    Files.copy(is, file.toPath());
+                }
+            }
+            logger.info("Remapping {} changed and dependent classes, {} removed.", dirty.size(), removed.stream().filter(e -> e.endsWith(".class")).count());
+
+            Map<String, byte[]> remapped = new ConcurrentHashMap<>();
+            if (!dirty.isEmpty()) {
+                TinyRemapper tinyRemapper = remapper.get();
+                try {
+                    tinyRemapper.readInputs(dirtyDir.toPath());
+                    Path[] fullClassPath = Arrays.copyOf(classPath, classPath.length + 1);
+                    fullClassPath[classPath.length] = contextDir.toPath();
+                    tinyRemapper.readClassPath(fullClassPath);
+                    tinyRemapper.apply(remapped::put);
+                } finally {
+                    tinyRemapper.finish();
+                }
+            }
+            //Entries are tracked by input name, only possible while class names are unchanged.
+            if (!remapped.keySet().equals(dirty)) {
+                logger.info("Remapping renamed classes, falling back to a full remap.");
+                return false;
+            }
+
+            File updated = new File(work, "output.jar");
+            Files.copy(previous.toPath(), updated.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            try (StitchUtil.FileSystemDelegate delegate = StitchUtil.getJarFileSystem(updated, false)) {
+                FileSystem fs = delegate.get();
+                for (String name : removed) {
+                    Files.deleteIfExists(fs.getPath(name));
+                }
+                for (Map.Entry<String, byte[]> entry : resources.entrySet()) {
+                    write(fs.getPath(entry.getKey()), entry.getValue());
+                }
+                for (Map.Entry<String, byte[]> entry : remapped.entrySet()) {
+                    write(fs.getPath(entry.getKey() + ".class"), entry.getValue());
+                }
+            }
+            Files.move(updated.toPath(), previous.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            FileUtils.deleteDirectory(work);
+        }
+        saveIndex(next);
+        copy(previous, output);
+        return true;
+    }
+
+    /**
+     * Records the result of a full remap, as the base for the next incremental remap.
+     *
+     * @param input    The input jar, as it was remapped.
+     * @param output   The output jar.
+     * @param stateKey Identifies the mappings and classpath.
+     */
+    public void record(File input, File output, String stateKey) throws IOException {
+        Index index = new Index();
+        index.version = INDEX_VERSION;
+        index.stateKey = stateKey;
+        try (ZipFile zip = new ZipFile(input)) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                EntryState state = new EntryState();
+                state.crc = entry.getCrc();
+                state.size = entry.getSize();
+                if (entry.getName().endsWith(".class")) {
+                    ClassReader reader = new ClassReader(read(zip, entry));
+                    state.superName = reader.getSuperName();
+                    state.interfaces = Arrays.asList(reader.getInterfaces());
+                    state.references = getReferences(reader);
+                }
+                index.entries.put(entry.getName(), state);
+            }
+        }
+        dir.mkdirs();
+        copy(output, getPreviousOutput());
+        saveIndex(index);
+    }
+
+    /**
+     * Drops all state, the next remap will be a full one.
+     */
+    public void invalidate() throws IOException {
+        getIndexFile().delete();
+        getPreviousOutput().delete();
+    }
+
+    //Changed classes, plus every sub type of a changed or removed class, their hierarchy is different.
+    //Plus every class referencing any of those, its member references may resolve differently.
+    private static Set<String> findDirty(Index index, Set<String> changed, Set<String> removed) {
+        Map<String, List<String>> children = new HashMap<>();
+        Map<String, List<String>> referrers = new HashMap<>();
+        index.entries.forEach((name, state) -> {
+            if (name.endsWith(".class")) {
+                String cls = className(name);
+                if (state.superName != null) {
+                    children.computeIfAbsent(state.superName, e -> new ArrayList<>()).add(cls);
+                }
+                for (String iFace : state.interfaces) {
+                    children.computeIfAbsent(iFace, e -> new ArrayList<>()).add(cls);
+                }
+                for (String reference : state.references) {
+                    referrers.computeIfAbsent(reference, e -> new ArrayList<>()).add(cls);
+                }
+            }
+        });
+        Deque<String> queue = new ArrayDeque<>(changed);
+        removed.stream().filter(e -> e.endsWith(".class")).map(IncrementalRemapper::className).forEach(queue::add);
+        Set<String> affected = new HashSet<>(queue);
+        while (!queue.isEmpty()) {
+            for (String child : children.getOrDefault(queue.pop(), Collections.emptyList())) {
+                if (affected.add(child)) {
+                    queue.add(child);
+                }
+            }
+        }
+        //Referrers don't spread any further, their own hierarchy is unchanged.
+        Set<String> dirty = new HashSet<>(changed);
+        for (String cls : affected) {
+            if (index.entries.containsKey(cls + ".class")) {
+                dirty.add(cls);
+            }
+            dirty.addAll(referrers.getOrDefault(cls, Collections.emptyList()));
+        }
+        return dirty;
+    }
+
+    //Every class constant, this covers the owner of every field and method reference.
+    private static List<String> getReferences(ClassReader reader) {
+        Set<String> references = new TreeSet<>();
+        char[] buffer = new char[reader.getMaxStringLength()];
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            int offset = reader.getItem(i);
+            if (offset == 0 || reader.readByte(offset - 1) != CONSTANT_CLASS) {
+                continue;
+            }
+            Type type = Type.getObjectType(reader.readUTF8(offset, buffer));
+            if (type.getSort() == Type.ARRAY) {
+                type = type.getElementType();
+            }
+            if (type.getSort() == Type.OBJECT && !type.getInternalName().equals(reader.getClassName())) {
+                references.add(type.getInternalName());
+            }
+        }
+        return new ArrayList<>(references);
+    }
+
+    private Index loadIndex() {
+        File file = getIndexFile();
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            Index index = Utils.fromJson(gson, file, Index.class);
+            return index != null && index.entries != null ? index : null;
+        } catch (RuntimeException e) {
+            logger.warn("Ignoring corrupt remap index '{}'.", file, e);
+            return null;
+        }
+    }
+
+    private void saveIndex(Index index) {
+        Utils.toJson(gson, index, Index.class, getIndexFile());
+    }
+
+    private File getIndexFile() {
+        return new File(dir, "index.json");
+    }
+
+    private File getPreviousOutput() {
+        return new File(dir, "output.jar");
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        if (!from.equals(to)) {
+            Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void write(Path path, byte[] bytes) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Files.write(path, bytes);
+    }
+
+    private static byte[] read(ZipFile zip, ZipEntry entry) throws IOException {
+        try (InputStream is = zip.getInputStream(entry)) {
+            return IOUtils.toByteArray(is);
+        }
+    }
+
+    private static String className(String entryName) {
+        return entryName.substring(0, entryName.length() - ".class".length());
+    }
+
+    private static class Index {
+
+        public int version;
+        public String stateKey;
+        public Map<String, EntryState> entries = new HashMap<>();
+    }
+
+    private static class EntryState {
+
+        public long crc;
+        public long size;
+        public String superName;
+        public List<String> interfaces = Collections.emptyList();
+        public List<String> references = Collections.emptyList();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks;
+
+import net.fabricmc.loom.tasks.cache.HashStrategy;
+import net.fabricmc.loom.tasks.cache.TaskInputCache;
+import net.fabricmc.loom.util.FileHashCache;
+import org.gradle.api.Task;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Provides hierarchy only stubs of remapper classpath jars.
+ *
+ * A stub keeps every class's name, super types and member signatures, all the remapper
+ * reads from the classpath, without code, debug info or resources. Stubs are built once
+ * per jar content, keyed by its fingerprint, and shared between tasks, projects and builds
+ * from the Gradle user home, so remapping a small jar doesn't re-parse every library in full.
+ *
+ * Stubs are touched whenever they are used, after a new stub is written, stubs not used
+ * within {@link #MAX_AGE} are deleted.
+ */
+public class LibraryStubs {
+
+    private static final Logger logger = Logging.getLogger("LibraryStubs");
+    //Bump when the stub format changes.
+    private static final int VERSION = 1;
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(30);
+    //Only guards against building the same stub twice, builds in other processes are handled by the atomic move.
+    private static final Map<File, Object> locks = new ConcurrentHashMap<>();
+
+    /**
+     * Resolves the classpath for a remapper, swapping jars for their stubs.
+     * Directories and anything that can't be stubbed are passed through.
+     *
+     * @param task      The task the classpath is for.
+     * @param libraries The classpath.
+     * @return The stubbed classpath.
+     */
+    public static Path[] resolve(Task task, Collection<File> libraries) {
+        File dir = new File(task.getProject().getGradle().getGradleUserHomeDir(), "caches/fabric-loom/library_stubs");
+        //Stubs are shared across builds, so use the same strategy as other global files.
+        FileHashCache fingerprints = TaskInputCache.getFingerprints(task, HashStrategy.resolve(task.getProject(), false), true);
+        return libraries.stream().map(lib -> stub(dir, fingerprints, lib).toPath()).toArray(Path[]::new);
+    }
+
+    private static File stub(File dir, FileHashCache fingerprints, File library) {
+        if (!library.isFile() || !library.getName().endsWith(".jar")) {
+            return library;
+        }
+        File stub = new File(dir, fingerprints.getHash(library) + "-" + VERSION + ".jar");
+        synchronized (locks.computeIfAbsent(stub, e -> new Object())) {
+            if (stub.exists()) {
+                stub.setLastModified(System.currentTimeMillis());
+                return stub;
+            }
+            try {
+                writeStub(library, stub);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to stub library '{}', using it as is.", library, e);
+                return library;
+            }
+        }
+        evict(dir);
+        return stub;
+    }
+
+    /**
+     * Deletes stubs not used within {@link #MAX_AGE}.
+     */
+    private static void evict(File dir) {
+        File[] stubs = dir.listFiles((d, name) -> name.endsWith(".jar"));
+        if (stubs == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (File stub : stubs) {
+            long lastModified = stub.lastModified();
+            if (lastModified != 0 && now - lastModified > MAX_AGE) {
+                if (!stub.delete() && stub.exists()) {
+                    logger.warn("Failed to delete unused library stub '{}'.", stub);
+                }
+            }
+        }
+    }
+
+    private static void writeStub(File library, File stub) throws IOException {
+        stub.getParentFile().mkdirs();
+        //Other builds may race us, only a complete stub is ever moved into place.
+        File tmp = new File(stub.getParentFile(), stub.getName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            try (ZipFile zip = new ZipFile(library);
+                 ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(tmp.toPath()))) {
+                for (ZipEntry entry : Collections.list(zip.entries())) {
+                    if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+                        continue;
+                    }
+                    ClassReader reader;
+                    try (InputStream is = zip.getInputStream(entry)) {
+                        reader = new ClassReader(is);
+                    }
+                    ClassWriter writer = new ClassWriter(0);
+                    reader.accept(writer, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                    zos.putNextEntry(new ZipEntry(entry.getName()));
+                    zos.write(writer.toByteArray());
+                    zos.closeEntry();
+                }
+            }
+            Files.move(tmp.toPath(), stub.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+}
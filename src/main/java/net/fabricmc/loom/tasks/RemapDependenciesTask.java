@@ -0,0 +1,342 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import net.fabricmc.loom.tasks.cache.CachedInput;
+import net.fabricmc.loom.tasks.cache.CachedInputTask;
+import net.fabricmc.loom.tasks.cache.HashStrategy;
+import net.fabricmc.loom.tasks.cache.TaskInputCache;
+import net.fabricmc.loom.tasks.sourceremap.ForkedMercuryExecutor;
+import net.fabricmc.loom.util.FileHashCache;
+import net.fabricmc.loom.util.TinyMappingProvider;
+import net.fabricmc.loom.util.Utils;
+import net.fabricmc.tinyremapper.OutputConsumerPath;
+import net.fabricmc.tinyremapper.TinyRemapper;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.OutputFiles;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Remaps every mod dependency, and its sources, in one task.
+ *
+ * Classes of all dependencies are read into a shared TinyRemapper, so mappings and the
+ * library hierarchy are loaded once, with each class routed back to the output of the jar
+ * it came from. Dependencies sharing a class name get a remapper of their own, these run
+ * concurrently. Every other dependency is on the classpath of each remapper, so a class
+ * resolves its hierarchy the same whichever dependencies are remapped alongside it.
+ * Sources are remapped in a single forked JVM.
+ *
+ * Each artifact's result is recorded against the content of its input and the mappings
+ * and libraries, only new or changed artifacts are remapped when the task runs again.
+ */
+public class RemapDependenciesTask extends CachedInputTask implements ForkingJavaExecTask {
+
+    private static final Gson gson = new Gson();
+    private static final Type INDEX_TYPE = new TypeToken<Map<String, String>>() {}.getType();
+
+    private List<Object> mappings = new ArrayList<>();
+    private Object fromMappings;
+    private Object toMappings;
+    private Object libraries;
+    private Map<String, Artifact> artifacts = new LinkedHashMap<>();
+
+    @TaskAction
+    public void doTask() throws Throwable {
+        File indexFile = new File(getTemporaryDir(), "remapped.json");
+        Map<String, String> index = indexFile.exists() ? Utils.fromJson(gson, indexFile, INDEX_TYPE) : null;
+        Map<String, String> newIndex = new TreeMap<>();
+
+        List<File> mappings = getMappings();
+        Set<File> libraries = getLibraries().getFiles();
+        String stateKey = TinyRemapTask.computeStateKey(getFromMappings(), getToMappings(), mappings, libraries);
+        //Raw bytes, artifacts are only re-read when their size or timestamp changes.
+        FileHashCache fingerprints = TaskInputCache.getFingerprints(this, HashStrategy.resolve(getProject(), true), false);
+
+        List<Artifact> classJobs = new ArrayList<>();
+        List<Artifact> sourceJobs = new ArrayList<>();
+        for (Map.Entry<String, Artifact> entry : artifacts.entrySet()) {
+            Artifact artifact = entry.getValue();
+            String key = artifact.computeKey(stateKey, fingerprints);
+            newIndex.put(entry.getKey(), key);
+            if (index == null || !key.equals(index.get(entry.getKey())) || !artifact.getOutput().exists()) {
+                (artifact.sources ? sourceJobs : classJobs).add(artifact);
+            }
+        }
+        getLogger().lifecycle("Remapping {} of {} dependency artifacts.", classJobs.size() + sourceJobs.size(), artifacts.size());
+        //Nothing is trusted until every job has finished.
+        indexFile.delete();
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            if (!classJobs.isEmpty()) {
+                Path[] classPath = LibraryStubs.resolve(this, libraries);
+                for (List<Artifact> session : partition(classJobs)) {
+                    Path[] sessionClassPath = getClassPath(session, classPath);
+                    futures.add(executor.submit(() -> {
+                        remapClasses(session, sessionClassPath, mappings);
+                        return null;
+                    }));
+                }
+            }
+            if (!sourceJobs.isEmpty()) {
+                remapSources(sourceJobs, mappings, libraries);
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Utils.toJson(gson, newIndex, INDEX_TYPE, indexFile);
+    }
+
+    //Splits the jobs into sessions, where no two jobs in a session have a class in common.
+    private static List<List<Artifact>> partition(List<Artifact> jobs) throws IOException {
+        List<Set<String>> sessionClasses = new ArrayList<>();
+        List<List<Artifact>> sessions = new ArrayList<>();
+        for (Artifact job : jobs) {
+            Set<String> classes = job.getClassNames();
+            int i = 0;
+            while (i < sessions.size() && !Collections.disjoint(sessionClasses.get(i), classes)) {
+                i++;
+            }
+            if (i == sessions.size()) {
+                sessionClasses.add(new HashSet<>());
+                sessions.add(new ArrayList<>());
+            }
+            sessionClasses.get(i).addAll(classes);
+            sessions.get(i).add(job);
+        }
+        return sessions;
+    }
+
+    //The libraries, plus every dependency not in the session, minus any clashing with a class already there.
+    private Path[] getClassPath(List<Artifact> session, Path[] libraries) throws IOException {
+        Set<String> classes = new HashSet<>();
+        for (Artifact job : session) {
+            classes.addAll(job.getClassNames());
+        }
+        List<Path> classPath = new ArrayList<>(Arrays.asList(libraries));
+        for (Artifact artifact : artifacts.values()) {
+            if (artifact.sources || session.contains(artifact)) {
+                continue;
+            }
+            Set<String> names = artifact.getClassNames();
+            if (Collections.disjoint(classes, names)) {
+                classes.addAll(names);
+                classPath.add(artifact.getInput().toPath());
+            }
+        }
+        return classPath.toArray(new Path[0]);
+    }
+
+    private void remapClasses(List<Artifact> jobs, Path[] classPath, List<File> mappings) throws IOException {
+        TinyRemapper.Builder builder = TinyRemapper.newRemapper();
+        builder.renameInvalidLocals(true);
+        builder.rebuildSourceFilenames(true);
+        for (File mapping : mappings) {
+            builder.withMappings(TinyMappingProvider.create(mapping, getFromMappings(), getToMappings()));
+        }
+        //Providers are loaded in order into the remapper's class map, so this sees every class mapping.
+        Map<String, String> classMap = new HashMap<>();
+        builder.withMappings((classes, fields, methods) -> classMap.putAll(classes));
+
+        TinyRemapper remapper = builder.build();
+        Map<String, OutputConsumerPath> owners = new HashMap<>();
+        List<OutputConsumerPath> consumers = new ArrayList<>();
+        try {
+            for (Artifact job : jobs) {
+                File output = job.getOutput();
+                output.getParentFile().mkdirs();
+                OutputConsumerPath consumer = new OutputConsumerPath(output.toPath());
+                consumers.add(consumer);
+                consumer.addNonClassFiles(job.getInput().toPath());
+                //Remapped classes are handed over by their new name.
+                for (String cls : job.getClassNames()) {
+                    owners.put(classMap.getOrDefault(cls, cls), consumer);
+                    owners.putIfAbsent(mapClassName(classMap, cls), consumer);
+                }
+            }
+            remapper.readInputs(jobs.stream().map(e -> e.getInput().toPath()).toArray(Path[]::new));
+            remapper.readClassPath(classPath);
+            remapper.apply(consumers.size() == 1 ? consumers.get(0) : (BiConsumer<String, byte[]>) (name, bytes) -> {
+                OutputConsumerPath consumer = owners.get(name);
+                if (consumer == null) {
+                    throw new IllegalStateException("Unable to find the dependency of remapped class '" + name + "'.");
+                }
+                consumer.accept(name, bytes);
+            });
+        } finally {
+            remapper.finish();
+            for (OutputConsumerPath consumer : consumers) {
+                consumer.close();
+            }
+        }
+    }
+
+    //Inner classes without a mapping of their own may follow their outer class.
+    private static String mapClassName(Map<String, String> classMap, String name) {
+        String mapped = classMap.get(name);
+        if (mapped != null) {
+            return mapped;
+        }
+        int inner = name.lastIndexOf('$');
+        return inner > 0 ? mapClassName(classMap, name.substring(0, inner)) + name.substring(inner) : name;
+    }
+
+    private void remapSources(List<Artifact> jobs, List<File> mappings, Set<File> libraries) {
+        List<String> args = new ArrayList<>();
+        libraries.forEach(f -> args.add("-l=" + f.getAbsolutePath()));
+        for (Artifact job : jobs) {
+            job.getOutput().getParentFile().mkdirs();
+            args.add("-j=" + job.getInput().getAbsolutePath());
+            args.add("-J=" + job.getOutput().getAbsolutePath());
+        }
+        mappings.forEach(f -> args.add("-m=" + f.getAbsolutePath()));
+        args.add("-f=" + getFromMappings());
+        args.add("-t=" + getToMappings());
+        ExecResult result = javaexec(spec -> {
+            spec.setMain(ForkedMercuryExecutor.class.getName());
+            spec.setArgs(args);
+            spec.jvmArgs("-Xms200m", "-Xmx3G");
+            spec.setErrorOutput(System.err);
+            spec.setStandardOutput(System.out);
+        });
+        result.rethrowFailure();
+        result.assertNormalExitValue();
+    }
+
+    /**
+     * Adds a dependency jar to remap.
+     *
+     * @param name   A unique name for the artifact.
+     * @param input  The input jar.
+     * @param output The output jar.
+     */
+    public void addDependency(String name, Object input, Object output) {
+        addArtifact(name, new Artifact(input, output, false));
+    }
+
+    /**
+     * Adds a dependency sources jar to remap.
+     *
+     * @param name   A unique name for the artifact.
+     * @param input  The input sources jar.
+     * @param output The output sources jar.
+     */
+    public void addSources(String name, Object input, Object output) {
+        addArtifact(name, new Artifact(input, output, true));
+    }
+
+    private void addArtifact(String name, Artifact artifact) {
+        if (artifacts.put(name, artifact) != null) {
+            throw new IllegalArgumentException("Duplicate artifact '" + name + "'.");
+        }
+    }
+
+    //@formatter:off
+    @CachedInput public List<File> getMappings() {
+        return mappings.stream()//TODO, this is messy.
+                .filter(e -> !(e instanceof File) || ((File) e).exists())
+                .map(getProject()::file)
+                .collect(Collectors.toList());
+    }
+    @CachedInput public String getFromMappings() { return Utils.resolveString(fromMappings); }
+    @CachedInput public String getToMappings() { return Utils.resolveString(toMappings); }
+    @CachedInput public FileCollection getLibraries() { return getProject().files(libraries); }
+    @CachedInput public List<File> getArtifactInputs() { return artifacts.values().stream().map(Artifact::getInput).collect(Collectors.toList()); }
+    @OutputFiles public Map<String, File> getRemappedArtifacts() { return artifacts.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().getOutput(), (a, b) -> a, LinkedHashMap::new)); }
+    public void addMappings(Object mappings) { this.mappings.add(mappings); }
+    public void setFromMappings(Object fromMappings) { this.fromMappings = fromMappings; }
+    public void setToMappings(Object toMappings) { this.toMappings = toMappings; }
+    public void setLibraries(Object libraries) { this.libraries = libraries; }
+    //@formatter:on
+
+    private class Artifact {
+
+        private final Object input;
+        private final Object output;
+        private final boolean sources;
+        private Set<String> classNames;
+
+        private Artifact(Object input, Object output, boolean sources) {
+            this.input = input;
+            this.output = output;
+            this.sources = sources;
+        }
+
+        private String computeKey(String stateKey, FileHashCache fingerprints) {
+            Hasher hasher = Hashing.sha256().newHasher();
+            hasher.putString(stateKey, StandardCharsets.UTF_8);
+            hasher.putBoolean(sources);
+            hasher.putString(getOutput().getAbsolutePath(), StandardCharsets.UTF_8);
+            hasher.putBytes(fingerprints.getHash(getInput()).asBytes());
+            return hasher.hash().toString();
+        }
+
+        private synchronized Set<String> getClassNames() throws IOException {
+            if (classNames == null) {
+                try (ZipFile zip = new ZipFile(getInput())) {
+                    classNames = Collections.list(zip.entries()).stream()//
+                            .map(ZipEntry::getName)//
+                            .filter(e -> e.endsWith(".class"))//
+                            .map(e -> e.substring(0, e.length() - ".class".length()))//
+                            .collect(Collectors.toSet());
+                }
+            }
+            return classNames;
+        }
+
+        //@formatter:off
+        public File getInput() { return getProject().file(input); }
+        public File getOutput() { return getProject().file(output); }
+        //@formatter:on
+    }
+}
@@ -26,6 +26,7 @@ package net.fabricmc.loom.tasks;
 
 import net.fabricmc.loom.tasks.cache.CachedInput;
 import net.fabricmc.loom.tasks.cache.CachedInputTask;
+import net.fabricmc.loom.tasks.cache.TaskInputCache;
 import net.fabricmc.loom.util.LineNumberRemapper;
 import net.fabricmc.stitch.util.StitchUtil;
 import org.gradle.api.tasks.OutputFile;
@@ -45,6 +46,9 @@ public class RemapLineNumbersTask extends CachedInputTask {
 
     @TaskAction
     public void doTask() throws IOException {
+        if (TaskInputCache.restoreOutputs(this)) {
+            return;
+        }
         LineNumberRemapper remapper = new LineNumberRemapper();
         remapper.readMappings(getLineMap());
         try (StitchUtil.FileSystemDelegate inFs = StitchUtil.getJarFileSystem(getInput(), true)) {
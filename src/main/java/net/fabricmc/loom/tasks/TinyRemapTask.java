@@ -24,20 +24,26 @@
 
 package net.fabricmc.loom.tasks;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import net.fabricmc.loom.tasks.cache.CachedInput;
 import net.fabricmc.loom.tasks.cache.CachedInputTask;
+import net.fabricmc.loom.tasks.cache.TaskInputCache;
+import net.fabricmc.loom.util.TinyMappingProvider;
 import net.fabricmc.loom.util.Utils;
 import net.fabricmc.tinyremapper.OutputConsumerPath;
 import net.fabricmc.tinyremapper.TinyRemapper;
-import net.fabricmc.tinyremapper.TinyUtils;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -52,13 +58,28 @@ public class TinyRemapTask extends CachedInputTask {
     private List<Object> mappings = new ArrayList<>();
     private Object fromMappings;
     private Object toMappings;
+    private boolean incremental;
 
     @TaskAction
     public void doTask() throws IOException {
+        if (TaskInputCache.restoreOutputs(this)) {
+            return;
+        }
         File input = getInput();
         File output = getOutput();
         boolean isOverwrite = input.equals(output);
 
+        IncrementalRemapper incrementalRemapper = null;
+        String stateKey = null;
+        Path[] classPath = LibraryStubs.resolve(this, getLibraries().getFiles());
+        if (isIncremental() && input.isFile()) {
+            incrementalRemapper = new IncrementalRemapper(new File(getTemporaryDir(), "incremental"), getLogger());
+            stateKey = computeStateKey(getFromMappings(), getToMappings(), getMappings(), getLibraries().getFiles());
+            if (incrementalRemapper.remap(input, output, stateKey, this::buildRemapper, classPath)) {
+                return;
+            }
+        }
+
         if (isOverwrite) {
             if (input.isFile()) {
                 output = new File(getTemporaryDir(), "out.jar");
@@ -67,30 +88,56 @@ public class TinyRemapTask extends CachedInputTask {
             }
         }
 
-        TinyRemapper.Builder builder = TinyRemapper.newRemapper();
-        builder.renameInvalidLocals(true);
-        builder.rebuildSourceFilenames(true);
-        for (File mappings : getMappings()) {
-            builder.withMappings(TinyUtils.createTinyMappingProvider(mappings.toPath(), getFromMappings(), getToMappings()));
+        if (incrementalRemapper != null) {
+            incrementalRemapper.invalidate();
         }
-
-        TinyRemapper remapper = builder.build();
+        TinyRemapper remapper = buildRemapper();
         try (OutputConsumerPath outputConsumer = new OutputConsumerPath(output.toPath())) {
             Path inputPath = input.toPath();
             outputConsumer.addNonClassFiles(inputPath);
             remapper.readInputs(inputPath);
-            remapper.readClassPath(getLibraries().getFiles().stream().map(File::toPath).toArray(Path[]::new));
+            remapper.readClassPath(classPath);
             remapper.apply(outputConsumer);
         } finally {
             remapper.finish();
         }
 
+        if (incrementalRemapper != null) {
+            incrementalRemapper.record(input, output, stateKey);
+        }
         if (isOverwrite) {
             input.delete();
             output.renameTo(input);
         }
     }
 
+    private TinyRemapper buildRemapper() {
+        TinyRemapper.Builder builder = TinyRemapper.newRemapper();
+        builder.renameInvalidLocals(true);
+        builder.rebuildSourceFilenames(true);
+        for (File mappings : getMappings()) {
+            builder.withMappings(TinyMappingProvider.create(mappings, getFromMappings(), getToMappings()));
+        }
+        return builder.build();
+    }
+
+    //Anything that changes how unchanged classes would remap, invalidates incremental state.
+    //Mappings are hashed by content, as mixin mappings are regenerated on every compile.
+    static String computeStateKey(String from, String to, List<File> mappings, Collection<File> libraries) throws IOException {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putString(from + "->" + to, StandardCharsets.UTF_8);
+        for (File file : mappings) {
+            hasher.putString(file.getAbsolutePath(), StandardCharsets.UTF_8);
+            hasher.putBytes(Files.readAllBytes(file.toPath()));
+        }
+        for (File file : libraries) {
+            hasher.putString(file.getAbsolutePath(), StandardCharsets.UTF_8);
+            hasher.putLong(file.length());
+            hasher.putLong(file.lastModified());
+        }
+        return hasher.hash().toString();
+    }
+
     //@formatter:off
     @CachedInput public File getInput() { return getProject().file(input); }
     @OutputFile public File getOutput() { return getProject().file(output); }
@@ -103,11 +150,13 @@ public class TinyRemapTask extends CachedInputTask {
     }
     @CachedInput public String getFromMappings() { return Utils.resolveString(fromMappings); }
     @CachedInput public String getToMappings() { return Utils.resolveString(toMappings); }
+    @CachedInput public boolean isIncremental() { return incremental; }
     public void setInput(Object input) { this.input = input; }
     public void setOutput(Object output) { this.output = output; }
     public void setLibraries(Object libraries) { this.libraries = libraries; }
     public void addMappings(Object mappings) { this.mappings.add(mappings); }
     public void setFromMappings(Object fromMappings) { this.fromMappings = fromMappings; }
     public void setToMappings(Object toMappings) { this.toMappings = toMappings; }
+    public void setIncremental(boolean incremental) { this.incremental = incremental; }
     //@formatter:on
 }
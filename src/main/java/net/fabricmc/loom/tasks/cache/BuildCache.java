@@ -0,0 +1,173 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks.cache;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A content addressed cache of task outputs, keyed by the hash of everything the task consumes.
+ *
+ * Each entry is a zip holding every output file of a task, by property name.
+ * Backends are tried in order, an entry found in a later backend is copied
+ * into earlier ones, so a remote hit is a local hit next time.
+ * Failures of any backend are logged and treated as a miss, a broken cache never fails a build.
+ *
+ * Tasks opt in with {@link ICachedInputTask#setBuildCache}, and
+ * call {@link TaskInputCache#restoreOutputs} at the start of their action.
+ */
+public class BuildCache {
+
+    private static final Logger logger = Logging.getLogger("BuildCache");
+
+    private final List<BuildCacheBackend> backends;
+
+    public BuildCache(List<BuildCacheBackend> backends) {
+        this.backends = new ArrayList<>(backends);
+    }
+
+    /**
+     * Restores the outputs stored under key.
+     * Nothing is replaced unless the entry holds every output.
+     *
+     * @param key     The key.
+     * @param outputs The output files, by property name.
+     * @return If the outputs were restored.
+     */
+    public boolean load(String key, Map<String, File> outputs) {
+        File tmp = null;
+        try {
+            tmp = Files.createTempFile("navigator-build-cache", ".zip").toFile();
+            for (int i = 0; i < backends.size(); i++) {
+                BuildCacheBackend backend = backends.get(i);
+                try {
+                    if (!backend.load(key, tmp)) {
+                        continue;
+                    }
+                    unpack(tmp, outputs);
+                } catch (IOException e) {
+                    logger.warn("Failed to load build cache entry '{}' from {}.", key, backend.getClass().getSimpleName(), e);
+                    continue;
+                }
+                for (BuildCacheBackend earlier : backends.subList(0, i)) {
+                    store(earlier, key, tmp);
+                }
+                return true;
+            }
+            return false;
+        } catch (IOException e) {
+            logger.warn("Failed to load build cache entry '{}'.", key, e);
+            return false;
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Stores the given outputs under key, in every backend accepting pushes.
+     *
+     * @param key     The key.
+     * @param outputs The output files, by property name.
+     */
+    public void store(String key, Map<String, File> outputs) {
+        File tmp = null;
+        try {
+            tmp = Files.createTempFile("navigator-build-cache", ".zip").toFile();
+            pack(tmp, outputs);
+            for (BuildCacheBackend backend : backends) {
+                if (backend.isPush()) {
+                    store(backend, key, tmp);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to store build cache entry '{}'.", key, e);
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private static void store(BuildCacheBackend backend, String key, File entry) {
+        try {
+            backend.store(key, entry);
+        } catch (IOException e) {
+            logger.warn("Failed to store build cache entry '{}' in {}.", key, backend.getClass().getSimpleName(), e);
+        }
+    }
+
+    private static void pack(File zip, Map<String, File> outputs) throws IOException {
+        try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zip)))) {
+            //Outputs are mostly jars, already compressed.
+            zos.setLevel(Deflater.BEST_SPEED);
+            for (Map.Entry<String, File> output : new TreeMap<>(outputs).entrySet()) {
+                zos.putNextEntry(new ZipEntry(output.getKey()));
+                Files.copy(output.getValue().toPath(), zos);
+                zos.closeEntry();
+            }
+        }
+    }
+
+    private static void unpack(File zip, Map<String, File> outputs) throws IOException {
+        //Extract everything next to its destination first, then move into place.
+        Map<File, File> moves = new LinkedHashMap<>();
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            for (Map.Entry<String, File> output : outputs.entrySet()) {
+                ZipEntry entry = zipFile.getEntry(output.getKey());
+                if (entry == null) {
+                    throw new IOException("Build cache entry is missing output '" + output.getKey() + "'.");
+                }
+                File dest = output.getValue().getAbsoluteFile();
+                Files.createDirectories(dest.getParentFile().toPath());
+                File tmp = new File(dest.getParentFile(), dest.getName() + ".cache_tmp");
+                moves.put(tmp, dest);
+                try (InputStream is = zipFile.getInputStream(entry)) {
+                    Files.copy(is, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            for (Map.Entry<File, File> move : moves.entrySet()) {
+                try {
+                    Files.move(move.getKey().toPath(), move.getValue().toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(move.getKey().toPath(), move.getValue().toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } finally {
+            moves.keySet().forEach(File::delete);
+        }
+    }
+}
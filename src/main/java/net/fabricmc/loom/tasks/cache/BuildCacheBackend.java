@@ -0,0 +1,59 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks.cache;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Somewhere {@link BuildCache} entries are kept.
+ * Entries are immutable, a key always maps to the same content.
+ */
+public interface BuildCacheBackend {
+
+    /**
+     * Copies the entry for the given key to dest.
+     *
+     * @param key  The key.
+     * @param dest The file to write the entry to.
+     * @return If the entry exists.
+     */
+    boolean load(String key, File dest) throws IOException;
+
+    /**
+     * Stores the given file as the entry for key.
+     *
+     * @param key The key.
+     * @param src The file.
+     */
+    void store(String key, File src) throws IOException;
+
+    /**
+     * If entries should be stored in this backend.
+     *
+     * @return If {@link #store} should be called.
+     */
+    boolean isPush();
+}
@@ -26,6 +26,8 @@ package net.fabricmc.loom.tasks.cache;
 
 import org.gradle.api.DefaultTask;
 
+import java.util.function.Supplier;
+
 /**
  * Base class with a default implementation of {@link CachedInput} handling.
  * This can be done manually if needed, but here for class hierarchy sanity.
@@ -35,6 +37,7 @@ import org.gradle.api.DefaultTask;
 public class CachedInputTask extends DefaultTask implements ICachedInputTask {
 
     protected boolean simpleCache;
+    protected Supplier<BuildCache> buildCache;
 
     public CachedInputTask() {
         TaskInputCache.bind(this);
@@ -43,5 +46,7 @@ public class CachedInputTask extends DefaultTask implements ICachedInputTask {
     //@formatter:off
     @Override public void setSimpleCache(boolean simpleCache) { this.simpleCache = simpleCache; }
     @Override public boolean isSimpleCache() { return simpleCache; }
+    @Override public void setBuildCache(Supplier<BuildCache> buildCache) { this.buildCache = buildCache; }
+    @Override public BuildCache getBuildCache() { return buildCache != null ? buildCache.get() : null; }
     //@formatter:on
 }
@@ -0,0 +1,134 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks.cache;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A {@link BuildCacheBackend} storing entries as files in a directory.
+ *
+ * Entries are touched whenever they are loaded, after each store, entries not used
+ * within the max age are deleted, followed by the least recently used until the
+ * directory fits in the max size.
+ */
+public class DirectoryBuildCacheBackend implements BuildCacheBackend {
+
+    private static final Logger logger = Logging.getLogger("DirectoryBuildCacheBackend");
+
+    private final File dir;
+    private final long maxSize;
+    private final long maxAge;
+
+    /**
+     * @param dir     The directory.
+     * @param maxSize The max size of the directory in bytes.
+     * @param maxAge  The max time an entry is kept without being used, in milliseconds.
+     */
+    public DirectoryBuildCacheBackend(File dir, long maxSize, long maxAge) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+    }
+
+    @Override
+    public boolean load(String key, File dest) throws IOException {
+        File entry = getEntry(key);
+        try {
+            Files.copy(entry.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        entry.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    @Override
+    public void store(String key, File src) throws IOException {
+        File entry = getEntry(key);
+        Files.createDirectories(dir.toPath());
+        //Unique per store, builds storing the same key never write the same temp file.
+        Path tmp = Files.createTempFile(dir.toPath(), key, ".tmp");
+        try {
+            Files.copy(src.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(tmp, entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        evict();
+    }
+
+    @Override
+    public boolean isPush() {
+        return true;
+    }
+
+    /**
+     * Deletes expired entries, then the least recently used until under the max size.
+     */
+    public void evict() {
+        File[] entries = dir.listFiles((d, name) -> name.endsWith(".zip"));
+        if (entries == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        //Entries can be touched or deleted by other builds while sorting, snapshot the times.
+        long[] times = new long[entries.length];
+        Integer[] order = new Integer[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            times[i] = entries[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> -times[i]));
+        long size = 0;
+        for (int i : order) {
+            File entry = entries[i];
+            size += entry.length();
+            if (now - times[i] > maxAge || size > maxSize) {
+                if (!entry.delete() && entry.exists()) {
+                    logger.warn("Failed to evict build cache entry '{}'.", entry);
+                }
+            }
+        }
+    }
+
+    private File getEntry(String key) {
+        return new File(dir, key + ".zip");
+    }
+}
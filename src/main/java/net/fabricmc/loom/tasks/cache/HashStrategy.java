@@ -0,0 +1,86 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks.cache;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.gradle.api.GradleException;
+import org.gradle.api.Project;
+
+import java.util.Locale;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * The hash function used by {@link TaskInputCache} for input and output hashes.
+ *
+ * {@link #FAST} is plenty for detecting local changes, {@link #SECURE} is kept
+ * for hashes which are persisted somewhere they may be shared.
+ * The name of the strategy is stored in every cache file, switching invalidates them.
+ */
+public enum HashStrategy {
+    FAST("murmur3_128", Hashing.murmur3_128()),
+    SECURE("sha256", Hashing.sha256());
+
+    /**
+     * Project property overriding the strategy for every cache, either 'fast' or 'secure'.
+     */
+    public static final String PROPERTY = "navigator.cacheHashStrategy";
+
+    private final String algorithm;
+    private final HashFunction function;
+
+    HashStrategy(String algorithm, HashFunction function) {
+        this.algorithm = algorithm;
+        this.function = function;
+    }
+
+    /**
+     * Resolves the strategy for a cache.
+     *
+     * @param project The project.
+     * @param local   If the cache is only ever read by this project,
+     *                complex caches sit next to global files and may be shared.
+     * @return The strategy.
+     */
+    public static HashStrategy resolve(Project project, boolean local) {
+        Object override = project.findProperty(PROPERTY);
+        if (override != null) {
+            String name = override.toString().trim().toUpperCase(Locale.ROOT);
+            for (HashStrategy strategy : values()) {
+                if (strategy.name().equals(name)) {
+                    return strategy;
+                }
+            }
+            throw new GradleException(format("Invalid value for property ''{0}'': ''{1}'', expected ''fast'' or ''secure''.", PROPERTY, override));
+        }
+        return local ? FAST : SECURE;
+    }
+
+    //@formatter:off
+    public String getAlgorithm() { return algorithm; }
+    public HashFunction getFunction() { return function; }
+    //@formatter:on
+}
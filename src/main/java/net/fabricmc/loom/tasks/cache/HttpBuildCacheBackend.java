@@ -0,0 +1,104 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks.cache;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A {@link BuildCacheBackend} backed by a plain HTTP server.
+ *
+ * Entries are fetched with GET and stored with PUT to '&lt;url&gt;/&lt;key&gt;',
+ * a 404 is a miss. Anything serving static files with PUT support will do,
+ * including Gradle's own build cache node.
+ */
+public class HttpBuildCacheBackend implements BuildCacheBackend {
+
+    private final CloseableHttpClient client;
+    private final URI url;
+    private final boolean push;
+
+    /**
+     * @param client The client, not closed by this backend.
+     * @param url    The base url.
+     * @param push   If entries should be uploaded.
+     */
+    public HttpBuildCacheBackend(CloseableHttpClient client, URI url, boolean push) {
+        this.client = client;
+        this.url = url.toString().endsWith("/") ? url : URI.create(url + "/");
+        this.push = push;
+    }
+
+    @Override
+    public boolean load(String key, File dest) throws IOException {
+        HttpGet request = new HttpGet(url.resolve(key));
+        try (CloseableHttpResponse response = client.execute(request)) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status == HttpStatus.SC_NOT_FOUND) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                return false;
+            }
+            if (status != HttpStatus.SC_OK || response.getEntity() == null) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                throw new IOException("Unexpected response from build cache '" + request.getURI() + "': " + response.getStatusLine());
+            }
+            try (InputStream is = response.getEntity().getContent()) {
+                Files.copy(is, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public void store(String key, File src) throws IOException {
+        HttpPut request = new HttpPut(url.resolve(key));
+        request.setEntity(new FileEntity(src, ContentType.APPLICATION_OCTET_STREAM));
+        try (CloseableHttpResponse response = client.execute(request)) {
+            EntityUtils.consumeQuietly(response.getEntity());
+            int status = response.getStatusLine().getStatusCode();
+            if (status < 200 || status >= 300) {
+                throw new IOException("Unexpected response from build cache '" + request.getURI() + "': " + response.getStatusLine());
+            }
+        }
+    }
+
+    @Override
+    public boolean isPush() {
+        return push;
+    }
+}
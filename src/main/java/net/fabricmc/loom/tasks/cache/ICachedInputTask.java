@@ -24,6 +24,8 @@
 
 package net.fabricmc.loom.tasks.cache;
 
+import java.util.function.Supplier;
+
 /**
  * Created by covers1624 on 15/02/19.
  */
@@ -32,4 +34,12 @@ public interface ICachedInputTask {
     void setSimpleCache(boolean simpleCache);
 
     boolean isSimpleCache();
+
+    /**
+     * Sets the build cache outputs of this task are stored in and restored from.
+     * The supplier is resolved at execution time and may return null for none.
+     */
+    void setBuildCache(Supplier<BuildCache> buildCache);
+
+    BuildCache getBuildCache();
 }
@@ -25,26 +25,37 @@
 package net.fabricmc.loom.tasks.cache;
 
 import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hasher;
-import com.google.common.hash.Hashing;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import net.fabricmc.loom.util.CacheDatabase;
+import net.fabricmc.loom.util.FileHashCache;
 import net.fabricmc.loom.util.Utils;
 import org.apache.commons.lang3.StringUtils;
 import org.gradle.api.Task;
+import org.gradle.api.invocation.Gradle;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.OutputFiles;
 import org.gradle.api.tasks.util.PatternSet;
 
-import java.io.File;
+import java.io.*;
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * TaskInputCache allows tasks to have execution time evaluated cached inputs.
@@ -54,9 +65,10 @@ import java.util.function.Consumer;
  * to have 0 method parameters.
  * TaskInputCache will also search for {@link CachedOutput} and {@link OutputFile} annotations,
  * if any of either are found, its considered a 'complex' cache, instead of a per task cache
- * it switches to a per output cache, storing a cache file next to each output (appending '.input_cache.json')
- * and each output must validate against all hashes for the task to be considered up-to-date, this is useful for
+ * it switches to a per output cache, keyed by each output's path (in the user cache database for outputs in the
+ * user cache) and each output must validate against all hashes for the task to be considered up-to-date, this is useful for
  * global cached files.
+ * Entries are stored in a {@link CacheDatabase}, one in each project's build directory and one in the user cache.
  *
  * TODO, Ability to override base directory for complex caches.
  *
@@ -66,36 +78,52 @@ import java.util.function.Consumer;
 public class TaskInputCache {
 
     private static final Logger logger = Logging.getLogger("TaskInputCacheFactory");
-    private static Map<Class<?>, TaskClass> cache = new HashMap<>();
-    private static Gson gson = new GsonBuilder().registerTypeAdapterFactory(Utils.hashCodeStringTypeFactory).create();
+    //Computed once per task class, lookups after that don't lock.
+    private static final ClassValue<TaskClass> cache = new ClassValue<TaskClass>() {
+        @Override
+        protected TaskClass computeValue(Class<?> type) {
+            return new TaskClass(type);
+        }
+    };
+    //Bump to invalidate every build cache entry.
+    private static final String BUILD_CACHE_VERSION = "1";
+    //Tasks whose outputs were restored from their build cache this build, so aren't stored again.
+    private static final Set<Task> restored = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    //Task cache databases, one per build directory plus one in the user cache.
+    private static final Map<File, CacheDatabase> databases = new HashMap<>();
+    //Content hashes of input files, shared by every task in the build and persisted between builds.
+    private static final Map<File, FileHashCache> fingerprints = new HashMap<>();
+    //Hashing is mostly bound by disk, more threads than this just thrash.
+    private static final ForkJoinPool hashPool = new ForkJoinPool(Math.min(4, Runtime.getRuntime().availableProcessors()));
 
     public static void bind(Task task) {
         TaskClass clazz = lookup(task.getClass());
         task.getOutputs().upToDateWhen(t -> {
-            Map<String, HashCode> hashes = clazz.computeHashes(task);
+            boolean forcedSimple = task instanceof ICachedInputTask && ((ICachedInputTask) task).isSimpleCache();
+            HashStrategy strategy = HashStrategy.resolve(task.getProject(), clazz.isSimpleCache() || forcedSimple);
+            Map<String, HashCode> hashes = clazz.computeHashes(task, strategy);
             if (hashes == null) {
                 return false;
             }
             if (clazz.isSimpleCache()) {
-                CacheEntry entry = clazz.loadSimpleCache(t);
-                return compare(hashes, entry.inputs);
+                CacheEntry entry = getSimpleCache(t).load();
+                return strategy.getAlgorithm().equals(entry.algorithm) && compare(hashes, entry.inputs);
             } else {
-                boolean forcedSimple = task instanceof ICachedInputTask && ((ICachedInputTask) task).isSimpleCache();
                 for (TaskClass.CachedProperty output : clazz.getOutputs()) {
-                    File file = getComplexCache(output, task, forcedSimple);
-                    if (file == null) {
+                    CacheRef ref = getComplexCache(output, task, forcedSimple);
+                    if (ref == null) {
                         return false;
                     }
                     HashCode outputHash;
                     try {
-                        outputHash = output.computeHash(task);
-                    } catch (InvocationTargetException | IllegalAccessException e) {
+                        outputHash = output.computeHash(task, strategy, getFingerprints(task, strategy));
+                    } catch (InvocationTargetException e) {
                         task.getLogger().error("Exception hashing property '{}' on task '{}'.", output.getName(), task.getName(), e);
                         return false;
                     }
-                    CacheEntry entry = clazz.loadCache(file);
+                    CacheEntry entry = ref.load();
 
-                    if (!compare(hashes, entry.inputs) || !Objects.equals(outputHash, entry.output)) {
+                    if (!strategy.getAlgorithm().equals(entry.algorithm) || !compare(hashes, entry.inputs) || !Objects.equals(outputHash, entry.output)) {
                         return false;
                     }
                 }
@@ -103,23 +131,24 @@ public class TaskInputCache {
             }
         });
         task.doLast(t -> {
+            boolean forcedSimple = task instanceof ICachedInputTask && ((ICachedInputTask) task).isSimpleCache();
+            HashStrategy strategy = HashStrategy.resolve(task.getProject(), clazz.isSimpleCache() || forcedSimple);
             CacheEntry entry = new CacheEntry();
-            entry.inputs = clazz.computeHashes(t);
+            entry.algorithm = strategy.getAlgorithm();
+            entry.inputs = clazz.computeHashes(t, strategy);
             if (entry.inputs == null) {
                 t.getLogger().error("Unable to save hash cache for task '{}'.", t.getName());
                 return;
             }
             if (clazz.isSimpleCache()) {
-                Utils.toJson(gson, entry, CacheEntry.class, Utils.makeFile(getSimpleCache(t)));
+                getSimpleCache(t).save(entry);
             } else {
-                boolean forcedSimple = task instanceof ICachedInputTask && ((ICachedInputTask) task).isSimpleCache();
                 for (TaskClass.CachedProperty output : clazz.getOutputs()) {
-                    File file = getComplexCache(output, t, forcedSimple);
-                    if (file != null) {
+                    CacheRef ref = getComplexCache(output, t, forcedSimple);
+                    if (ref != null) {
                         try {
-                            CacheEntry complexEntry = entry.withOutput(output.computeHash(task));
-                            Utils.toJson(gson, complexEntry, CacheEntry.class, Utils.makeFile(file));
-                        } catch (IllegalAccessException | InvocationTargetException e) {
+                            ref.save(entry.withOutput(output.computeHash(task, strategy, getFingerprints(task, strategy))));
+                        } catch (InvocationTargetException e) {
                             task.getLogger().error("Exception hashing property '{}' on task '{}'.", output.getName(), task.getName(), e);
                             return;
                         }
@@ -127,20 +156,162 @@ public class TaskInputCache {
                 }
             }
 
+            BuildCache buildCache = getBuildCache(t);
+            if (buildCache != null && !restored.remove(t)) {
+                String key = computeBuildCacheKey(t, clazz);
+                Map<String, File> outputs = getOutputFiles(t, clazz);
+                if (key != null && outputs != null) {
+                    buildCache.store(key, outputs);
+                }
+            }
         });
     }
 
-    private static TaskClass lookup(Class<?> clazz) {
-        synchronized(cache) {
-            return cache.computeIfAbsent(clazz, TaskClass::new);
+    /**
+     * Attempts to restore the task's outputs from its {@link BuildCache}.
+     * Tasks using a build cache call this first thing in their action, and return if it succeeds.
+     *
+     * @param task The task.
+     * @return If the outputs were restored and the task has nothing left to do.
+     */
+    public static boolean restoreOutputs(Task task) {
+        BuildCache buildCache = getBuildCache(task);
+        if (buildCache == null) {
+            return false;
+        }
+        TaskClass clazz = lookup(task.getClass());
+        String key = computeBuildCacheKey(task, clazz);
+        Map<String, File> outputs = getOutputFiles(task, clazz);
+        if (key == null || outputs == null || !buildCache.load(key, outputs)) {
+            return false;
+        }
+        task.getLogger().lifecycle("Restored outputs of '{}' from the build cache.", task.getPath());
+        restored.add(task);
+        return true;
+    }
+
+    private static BuildCache getBuildCache(Task task) {
+        return task instanceof ICachedInputTask ? ((ICachedInputTask) task).getBuildCache() : null;
+    }
+
+    //Build cache entries are shared between machines, always keyed by a SECURE hash, regardless of the local strategy.
+    //Archives are hashed by their raw bytes, entry names, sizes and CRC32s are trivially forged into a poisoned hit.
+    private static String computeBuildCacheKey(Task task, TaskClass clazz) {
+        Map<String, HashCode> hashes = clazz.computeHashes(task, HashStrategy.SECURE, false);
+        if (hashes == null) {
+            return null;
         }
+        Hasher hasher = HashStrategy.SECURE.getFunction().newHasher();
+        hasher.putString(BUILD_CACHE_VERSION, StandardCharsets.UTF_8);
+        hasher.putString(task.getClass().getName(), StandardCharsets.UTF_8);
+        for (Map.Entry<String, HashCode> entry : new TreeMap<>(hashes).entrySet()) {
+            hasher.putString(entry.getKey(), StandardCharsets.UTF_8);
+            hasher.putBytes(entry.getValue().asBytes());
+        }
+        return hasher.hash().toString();
+    }
+
+    private static Map<String, File> getOutputFiles(Task task, TaskClass clazz) {
+        Map<String, File> outputs = new HashMap<>();
+        for (TaskClass.CachedProperty output : clazz.getOutputs()) {
+            try {
+                Object obj = output.get(task);
+                if (!(obj instanceof File)) {
+                    task.getLogger().error("Value of property {} on task {} does not evaluate to 'File'", output.getName(), task.getName());
+                    return null;
+                }
+                outputs.put(output.getName(), (File) obj);
+            } catch (InvocationTargetException e) {
+                task.getLogger().warn("Exception retrieving property '{}' on task '{}'.", output.getName(), task.getName(), e);
+                return null;
+            }
+        }
+        for (TaskClass.CachedProperty output : clazz.getOutputMaps()) {
+            try {
+                Object obj = output.get(task);
+                if (!(obj instanceof Map)) {
+                    task.getLogger().error("Value of property {} on task {} does not evaluate to 'Map'", output.getName(), task.getName());
+                    return null;
+                }
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) obj).entrySet()) {
+                    if (!(entry.getValue() instanceof File)) {
+                        task.getLogger().error("Value of property {} on task {} contains a value which is not a 'File'", output.getName(), task.getName());
+                        return null;
+                    }
+                    outputs.put(output.getName() + "/" + entry.getKey(), (File) entry.getValue());
+                }
+            } catch (InvocationTargetException e) {
+                task.getLogger().warn("Exception retrieving property '{}' on task '{}'.", output.getName(), task.getName(), e);
+                return null;
+            }
+        }
+        //Nothing to store, don't let an empty entry count as a restore.
+        return outputs.isEmpty() ? null : outputs;
+    }
+
+    private static FileHashCache getFingerprints(Task task, HashStrategy strategy) {
+        return getFingerprints(task, strategy, true);
     }
 
-    private static File getComplexCache(TaskClass.CachedProperty output, Task task, boolean forcedSimple) {
+    /**
+     * Gets the fingerprint store for the build the task belongs to, one per hash strategy
+     * and archive handling, see {@link FileHashCache#load(File, String, HashFunction, boolean)}.
+     * Loaded on first use, saved and dropped when the build finishes.
+     */
+    public static FileHashCache getFingerprints(Task task, HashStrategy strategy, boolean normaliseArchives) {
+        Gradle gradle = task.getProject().getGradle();
+        String name = "file_fingerprints_" + strategy.getAlgorithm() + (normaliseArchives ? "" : "_raw") + ".json";
+        File file = new File(gradle.getGradleUserHomeDir(), "caches/fabric-loom/" + name);
+        synchronized (fingerprints) {
+            return fingerprints.computeIfAbsent(file, f -> {
+                FileHashCache hashCache = FileHashCache.load(f, strategy.getAlgorithm(), strategy.getFunction(), normaliseArchives);
+                gradle.buildFinished(result -> {
+                    synchronized (fingerprints) {
+                        fingerprints.remove(f);
+                    }
+                    hashCache.save();
+                });
+                return hashCache;
+            });
+        }
+    }
+
+    /**
+     * Gets the cache database at the given location.
+     * Opened on first use, closed and dropped when the build finishes.
+     */
+    private static CacheDatabase getDatabase(Task task, File file) throws IOException {
+        Gradle gradle = task.getProject().getGradle();
+        synchronized (databases) {
+            CacheDatabase database = databases.get(file);
+            if (database == null) {
+                CacheDatabase db = CacheDatabase.open(file);
+                gradle.buildFinished(result -> {
+                    synchronized (databases) {
+                        databases.remove(file);
+                    }
+                    try {
+                        db.close();
+                    } catch (IOException e) {
+                        logger.warn("Failed to close cache database '{}'.", file, e);
+                    }
+                });
+                databases.put(file, db);
+                database = db;
+            }
+            return database;
+        }
+    }
+
+    private static TaskClass lookup(Class<?> clazz) {
+        return cache.get(clazz);
+    }
+
+    private static CacheRef getComplexCache(TaskClass.CachedProperty output, Task task, boolean forcedSimple) {
         Object obj;
         try {
             obj = output.get(task);
-        } catch (InvocationTargetException | IllegalAccessException e) {
+        } catch (InvocationTargetException e) {
             task.getLogger().warn("Exception retrieving property '{}' on task '{}'.", output.getName(), task.getName(), e);
             return null;
         }
@@ -148,15 +319,23 @@ public class TaskInputCache {
             task.getLogger().error("Value of property {} on task {} does not evaluate to 'File'", output.getName(), task.getName());
         }
         File file = ((File) obj).getAbsoluteFile();
-        File dir = file.getParentFile();
         if (forcedSimple) {
-            dir = new File(task.getProject().getBuildDir(), task.getName());
+            return new CacheRef(task, getBuildDatabase(task), task.getPath() + "/" + file.getName());
+        }
+        //Outputs in the user cache are shared between projects, so is their cache entry.
+        File userHome = task.getProject().getGradle().getGradleUserHomeDir().getAbsoluteFile();
+        if (file.toPath().startsWith(userHome.toPath())) {
+            return new CacheRef(task, new File(userHome, "caches/fabric-loom/task_cache.db"), file.getPath());
         }
-        return new File(dir, file.getName() + ".input_cache.json");
+        return new CacheRef(task, getBuildDatabase(task), file.getPath());
     }
 
-    private static File getSimpleCache(Task task) {
-        return new File(task.getProject().getBuildDir(), task.getName() + "/input_cache.json");
+    private static CacheRef getSimpleCache(Task task) {
+        return new CacheRef(task, getBuildDatabase(task), task.getPath());
+    }
+
+    private static File getBuildDatabase(Task task) {
+        return new File(task.getProject().getBuildDir(), "task_cache.db");
     }
 
     private static boolean compare(Map<String, HashCode> map1, Map<String, HashCode> map2) {
@@ -176,18 +355,98 @@ public class TaskInputCache {
         return true;
     }
 
+    /**
+     * A single entry in a cache database.
+     */
+    private static class CacheRef {
+
+        private final Task task;
+        private final File database;
+        private final String key;
+
+        public CacheRef(Task task, File database, String key) {
+            this.task = task;
+            this.database = database;
+            this.key = key;
+        }
+
+        public CacheEntry load() {
+            try {
+                byte[] data = getDatabase(task, database).get(key);
+                if (data != null) {
+                    return CacheEntry.read(data);
+                }
+            } catch (IOException e) {
+                task.getLogger().warn("Failed to read cache entry '{}' from '{}'.", key, database, e);
+            }
+            return new CacheEntry();
+        }
+
+        public void save(CacheEntry entry) {
+            try {
+                getDatabase(task, database).put(key, entry.write());
+            } catch (IOException e) {
+                task.getLogger().error("Failed to write cache entry '{}' to '{}'.", key, database, e);
+            }
+        }
+    }
+
     private static class CacheEntry {
 
+        public String algorithm = null;
         public HashCode output = null;
         public Map<String, HashCode> inputs = new HashMap<>();
 
         public CacheEntry withOutput(HashCode output) {
             CacheEntry entry = new CacheEntry();
+            entry.algorithm = algorithm;
             entry.output = output;
             entry.inputs.putAll(inputs);
             return entry;
         }
 
+        public static CacheEntry read(byte[] data) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            CacheEntry entry = new CacheEntry();
+            entry.algorithm = in.readUTF();
+            if (in.readBoolean()) {
+                entry.output = readHash(in);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                entry.inputs.put(in.readUTF(), readHash(in));
+            }
+            return entry;
+        }
+
+        public byte[] write() throws IOException {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeUTF(algorithm);
+            out.writeBoolean(output != null);
+            if (output != null) {
+                writeHash(out, output);
+            }
+            out.writeInt(inputs.size());
+            for (Map.Entry<String, HashCode> e : inputs.entrySet()) {
+                out.writeUTF(e.getKey());
+                writeHash(out, e.getValue());
+            }
+            out.flush();
+            return bos.toByteArray();
+        }
+
+        private static HashCode readHash(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[in.readUnsignedByte()];
+            in.readFully(bytes);
+            return HashCode.fromBytes(bytes);
+        }
+
+        private static void writeHash(DataOutputStream out, HashCode hash) throws IOException {
+            byte[] bytes = hash.asBytes();
+            out.writeByte(bytes.length);
+            out.write(bytes);
+        }
     }
 
     private static class TaskClass {
@@ -196,6 +455,8 @@ public class TaskInputCache {
         private List<TaskClass> interfaces = new ArrayList<>();
         private Set<CachedProperty> inputs = new HashSet<>();
         private Set<CachedProperty> outputs = new HashSet<>();
+        //Map<String, File> outputs, only used by the build cache.
+        private Set<CachedProperty> outputMaps = new HashSet<>();
 
         public TaskClass(Class<?> clazz) {
             Class<?> superClass = clazz.getSuperclass();
@@ -210,15 +471,18 @@ public class TaskInputCache {
             findAnnotated(clazz, Input.class, inputs::add);
             findAnnotated(clazz, CachedOutput.class, outputs::add);
             findAnnotated(clazz, OutputFile.class, outputs::add);
+            findAnnotated(clazz, OutputFiles.class, outputMaps::add);
 
             //Add all inherited properties.
             if (this.superClass != null) {
                 inputs.addAll(this.superClass.getInputs());
                 outputs.addAll(this.superClass.getOutputs());
+                outputMaps.addAll(this.superClass.getOutputMaps());
             }
             for (TaskClass iFace : interfaces) {
                 inputs.addAll(iFace.getInputs());
                 outputs.addAll(iFace.getOutputs());
+                outputMaps.addAll(iFace.getOutputMaps());
             }
         }
 
@@ -226,17 +490,6 @@ public class TaskInputCache {
             return getOutputs().isEmpty();
         }
 
-        public CacheEntry loadSimpleCache(Task task) {
-            return loadCache(getSimpleCache(task));
-        }
-
-        public CacheEntry loadCache(File cacheFile) {
-            if (!cacheFile.exists()) {
-                return new CacheEntry();
-            }
-            return Utils.fromJson(gson, cacheFile, CacheEntry.class);
-        }
-
         public Set<CachedProperty> getInputs() {
             return inputs;
         }
@@ -245,19 +498,56 @@ public class TaskInputCache {
             return outputs;
         }
 
-        public Map<String, HashCode> computeHashes(Task task) {
-            Map<String, HashCode> hashes = new HashMap<>();
+        public Set<CachedProperty> getOutputMaps() {
+            return outputMaps;
+        }
+
+        public Map<String, HashCode> computeHashes(Task task, HashStrategy strategy) {
+            return computeHashes(task, strategy, true);
+        }
+
+        public Map<String, HashCode> computeHashes(Task task, HashStrategy strategy, boolean normaliseArchives) {
+            Map<CachedProperty, Object> values = new HashMap<>();
             for (CachedProperty property : getInputs()) {
                 try {
-                    hashes.put(property.getName(), property.computeHash(task));
-                } catch (InvocationTargetException | IllegalAccessException e) {
-                    task.getLogger().error("Exception hashing property '{}' on task '{}'.", property.getName(), task.getName(), e);
+                    values.put(property, property.get(task));
+                } catch (InvocationTargetException e) {
+                    task.getLogger().error("Exception retrieving property '{}' on task '{}'.", property.getName(), task.getName(), e);
                     return null;
                 }
             }
+            //Hash every file of every property in one parallel pass, then combine per property in order.
+            Set<File> files = new LinkedHashSet<>();
+            values.values().forEach(value -> CachedProperty.collectFiles(value, files));
+            FileHashCache fingerprints = getFingerprints(task, strategy, normaliseArchives);
+            Map<File, HashCode> fileHashes = hashFiles(files, fingerprints);
+            Map<String, HashCode> hashes = new HashMap<>();
+            values.forEach((property, value) -> hashes.put(property.getName(), CachedProperty.computeHash(value, strategy, fileHashes, fingerprints)));
             return hashes;
         }
 
+        /**
+         * Hashes the given files in parallel.
+         * Order doesn't matter here, callers combine the results in their own deterministic order.
+         */
+        private static Map<File, HashCode> hashFiles(Set<File> files, FileHashCache fingerprints) {
+            if (files.size() <= 1) {
+                Map<File, HashCode> hashes = new HashMap<>();
+                files.forEach(file -> hashes.put(file, fingerprints.getHash(file)));
+                return hashes;
+            }
+            try {
+                //Parallel streams run in the pool they are invoked from, keeping them off the common pool.
+                return hashPool.submit(() -> files.parallelStream().collect(Collectors.toConcurrentMap(Function.identity(), fingerprints::getHash))).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted hashing files.", e);
+            } catch (ExecutionException e) {
+                Utils.throwUnchecked(e.getCause());
+                return null;
+            }
+        }
+
         private static void findAnnotated(Class<?> clazz, Class<? extends Annotation> annotation, Consumer<CachedProperty> sink) {
             List<Method> methods = new ArrayList<>();
             List<Field> fields = new ArrayList<>();
@@ -318,6 +608,8 @@ public class TaskInputCache {
 
             private final Method method;
             private final Field field;
+            //(Object)Object, bound once so checks don't go through reflection.
+            private final MethodHandle getter;
 
             public CachedProperty(Field field) {
                 this(null, field);
@@ -330,6 +622,20 @@ public class TaskInputCache {
             protected CachedProperty(Method method, Field field) {
                 this.method = method;
                 this.field = field;
+                try {
+                    MethodHandle handle;
+                    if (method != null) {
+                        handle = MethodHandles.lookup().unreflect(method);
+                    } else if (field != null) {
+                        handle = MethodHandles.lookup().unreflectGetter(field);
+                    } else {
+                        //Impossible.
+                        throw new IllegalStateException("Method and Field null");
+                    }
+                    getter = handle.asType(MethodType.methodType(Object.class, Object.class));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException("Unable to access property '" + getName() + "'.", e);
+                }
             }
 
             public String getName() {
@@ -343,23 +649,71 @@ public class TaskInputCache {
                 throw new IllegalStateException("Method and Field null");
             }
 
-            public Object get(Object instance) throws InvocationTargetException, IllegalAccessException {
-                if (method != null) {
-                    return method.invoke(instance);
-                }
-                if (field != null) {
-                    return field.get(instance);
+            public Object get(Object instance) throws InvocationTargetException {
+                try {
+                    return getter.invokeExact(instance);
+                } catch (Throwable e) {
+                    //Keep the same contract as Method.invoke.
+                    throw new InvocationTargetException(e);
                 }
-                //Impossible.
-                throw new IllegalStateException("Method and Field null");
             }
 
-            public HashCode computeHash(Object instance) throws InvocationTargetException, IllegalAccessException {
-                Hasher hasher = Hashing.sha256().newHasher();
-                addToHasher(hasher, get(instance));
+            public HashCode computeHash(Object instance, HashStrategy strategy, FileHashCache fingerprints) throws InvocationTargetException {
+                Object value = get(instance);
+                Set<File> files = new LinkedHashSet<>();
+                collectFiles(value, files);
+                return computeHash(value, strategy, hashFiles(files, fingerprints), fingerprints);
+            }
+
+            /**
+             * Combines the hashes of everything in the value, in a fixed order.
+             *
+             * @param value      The value.
+             * @param strategy     The hash strategy, must be the one fileHashes were computed with.
+             * @param fileHashes   The content hash of every file reachable from the value, as collected.
+             * @param fingerprints Hashes files created since fileHashes was collected.
+             * @return The hash.
+             */
+            public static HashCode computeHash(Object value, HashStrategy strategy, Map<File, HashCode> fileHashes, FileHashCache fingerprints) {
+                Hasher hasher = strategy.getFunction().newHasher();
+                addToHasher(hasher, value, fileHashes, fingerprints);
                 return hasher.hash();
             }
 
+            /**
+             * Collects every file reachable from the value, walking it exactly as {@link #addToHasher} does.
+             */
+            public static void collectFiles(Object value, Set<File> files) {
+                if (value instanceof File) {
+                    File file = (File) value;
+                    if (file.isDirectory()) {
+                        for (File child : listSorted(file)) {
+                            collectFiles(child, files);
+                        }
+                    } else if (file.isFile()) {
+                        files.add(file);
+                    }
+                } else if (value instanceof Iterable) {
+                    for (Object v2 : (Iterable) value) {
+                        collectFiles(v2, files);
+                    }
+                } else if (value instanceof Object[]) {
+                    for (Object v2 : (Object[]) value) {
+                        collectFiles(v2, files);
+                    }
+                }
+            }
+
+            //listFiles order is filesystem dependent, sort it so hashes are stable.
+            private static File[] listSorted(File dir) {
+                File[] files = dir.listFiles();
+                if (files == null) {
+                    return new File[0];
+                }
+                Arrays.sort(files, Comparator.comparing(File::getName));
+                return files;
+            }
+
             @Override
             public boolean equals(Object obj) {
                 if (super.equals(obj)) {
@@ -390,34 +744,38 @@ public class TaskInputCache {
             }
 
             //This is likely cancer and may not cover all cases.
-            private static void addToHasher(Hasher hasher, Object value) {
+            private static void addToHasher(Hasher hasher, Object value, Map<File, HashCode> fileHashes, FileHashCache fingerprints) {
                 if (value instanceof File) {
                     File file = (File) value;
                     if (file.isDirectory()) {
-                        File[] files = file.listFiles();
-                        if (files != null) {
-                            for (File child : files) {
-                                addToHasher(hasher, child);
-                            }
+                        for (File child : listSorted(file)) {
+                            addToHasher(hasher, child, fileHashes, fingerprints);
                         }
                     } else if (file.isFile()) {
-                        Utils.addToHasher(hasher, file);
+                        //Unchanged files reuse their last content hash, without being read.
+                        //Archives are hashed by content, rebuilding an identical jar changes nothing.
+                        HashCode hash = fileHashes.get(file);
+                        if (hash == null) {
+                            //Directories are walked again here, anything created since collectFiles wasn't hashed yet.
+                            hash = fingerprints.getHash(file);
+                        }
+                        hasher.putBytes(hash.asBytes());
                     }
                 } else if (value instanceof CharSequence) {
                     hasher.putBytes(value.toString().getBytes());
                 } else if (value instanceof Iterable) {
                     for (Object v2 : (Iterable) value) {
-                        addToHasher(hasher, v2);
+                        addToHasher(hasher, v2, fileHashes, fingerprints);
                     }
                 } else if (value instanceof Object[]) {
                     for (Object v2 : (Object[]) value) {
-                        addToHasher(hasher, v2);
+                        addToHasher(hasher, v2, fileHashes, fingerprints);
                     }
                 } else if (value instanceof PatternSet) {
                     PatternSet patternSet = (PatternSet) value;
                     hasher.putBoolean(patternSet.isCaseSensitive());
-                    addToHasher(hasher, patternSet.getIncludes());
-                    addToHasher(hasher, patternSet.getExcludes());
+                    addToHasher(hasher, patternSet.getIncludes(), fileHashes, fingerprints);
+                    addToHasher(hasher, patternSet.getExcludes(), fileHashes, fingerprints);
                 } else if (value instanceof Boolean) {
                     hasher.putBoolean((Boolean) value);
                 } else if (value instanceof Integer) {
@@ -24,18 +24,25 @@
 
 package net.fabricmc.loom.tasks.download;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.RateLimiter;
 import net.fabricmc.loom.util.Utils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.utils.DateUtils;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
 import org.gradle.api.Project;
 import org.gradle.api.internal.project.ProjectInternal;
 import org.gradle.api.specs.AndSpec;
@@ -45,13 +52,29 @@ import org.gradle.internal.logging.progress.ProgressLoggerFactory;
 import org.gradle.internal.service.ServiceRegistry;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.text.MessageFormat.format;
 
 /**
  * Inspired and vaguely based off https://github.com/michel-kraemer/gradle-download-task
@@ -63,6 +86,9 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  *  External validation of file for up-to-date checking.
  *  UserAgent spoofing. (Thanks mojang!)
  *  Ability to set the ProgressLogger to use.
+ *  Resumable and segmented downloads.
+ *  Hash and size verification before the file is moved into place.
+ *  Retries with exponential backoff.
  * </pre>
  *
  * This is split into an Action, Spec and Task.
@@ -80,6 +106,9 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  */
 public class DownloadAction implements DownloadSpec {
 
+    //Segments smaller than this aren't worth the extra request.
+    private static final long MIN_SEGMENT_SIZE = 4 * 1024 * 1024;
+
     private final Project project;
     private Object src;
     private Object dest;
@@ -88,11 +117,20 @@ public class DownloadAction implements DownloadSpec {
     private Object eTagFile;
     private String userAgent;
     private boolean quiet;
+    private CloseableHttpClient httpClient;
+    private boolean resume = true;
+    private int segments = 1;
+    private Object sha1;
+    private long size = -1;
+    private RateLimiter rateLimiter;
+    private RetryPolicy retryPolicy = new RetryPolicy();
     private AndSpec<File> fileUpToDate = AndSpec.empty();
 
     private ProgressLogger progressLogger;
 
     private boolean upToDate;
+    private HashCode expectedSha1;
+    private HashCode downloadedHash;
 
     public DownloadAction(Project project) {
         this.project = project;
@@ -114,108 +152,492 @@ public class DownloadAction implements DownloadSpec {
 
         URL src = getSrc();
         File dest = getDest();
+        File partFile = getPartFile();
+        expectedSha1 = getSha1();
+        if (!resume) {
+            deletePart(partFile);
+        }
 
-        try (CloseableHttpClient client = HttpClientBuilder.create().build()) {
-            HttpGet request = new HttpGet(src.toString());
-            long timestamp = 0;
-            if (dest.exists()) {
-                timestamp = dest.lastModified();
-            }
-            if (onlyIfModified && dest.exists()) {
-                request.addHeader("If-Modified-Since", DateUtils.formatDate(new Date(timestamp)));
-            }
-            if (getUseETag().isEnabled()) {
-                String etag = loadETag(src);
-                if (!getUseETag().weak && StringUtils.startsWith(etag, "W/")) {
-                    etag = null;
-                }
-                if (etag != null) {
-                    request.addHeader("If-None-Match", etag);
+        if (progressLogger != null) {
+            progressLogger.started();
+        }
+        try {
+            int attempt = 1;
+            while (true) {
+                try {
+                    executeAttempt(src, dest, partFile);
+                    return;
+                } catch (IOException e) {
+                    if (!retryPolicy.shouldRetry(attempt, e)) {
+                        throw e;
+                    }
+                    //A resumable part file is kept, the next attempt picks up where this one failed.
+                    long delay = retryPolicy.getDelay(attempt, e);
+                    attempt++;
+                    String message = format("Retrying in {0}ms, attempt {1}/{2}. {3}", delay, attempt, retryPolicy.getMaxAttempts(), e.getMessage());
+                    if (!quiet) {
+                        project.getLogger().warn("Download of '{}' failed. {}", src, message);
+                    }
+                    if (progressLogger != null) {
+                        progressLogger.progress(message);
+                    }
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting to retry.");
+                    }
                 }
             }
+        } finally {
+            if (progressLogger != null) {
+                progressLogger.completed();
+            }
+        }
+    }
+
+    private void executeAttempt(URL src, File dest, File partFile) throws IOException {
+        if (segments > 1 && !partFile.exists() && executeSegmented(src, dest, partFile)) {
+            return;
+        }
+        if (!executeSingle(src, dest, partFile)) {
+            //Server refused to resume the partial file, start over.
+            deletePart(partFile);
+            executeSingle(src, dest, partFile);
+        }
+    }
+
+    /**
+     * Downloads the file in one request, resuming the part file if there is one.
+     *
+     * @return False if the server refused the resume range.
+     */
+    private boolean executeSingle(URL src, File dest, File partFile) throws IOException {
+        //Shared client, never closed here. Responses must be closed to return their connection to the pool.
+        CloseableHttpClient client = getHttpClient();
+        HttpGet request = new HttpGet(src.toString());
+        long timestamp = addConditionalHeaders(request, src, dest);
+        long resumeFrom = 0;
+        String validator = loadPartValidator(partFile);
+        if (validator != null && partFile.length() > 0) {
+            //If the remote file changed since the part was written, If-Range makes the server send all of it.
+            resumeFrom = partFile.length();
+            request.addHeader("Range", "bytes=" + resumeFrom + "-");
+            request.addHeader("If-Range", validator);
+            request.addHeader("Accept-Encoding", "identity");
+        } else {
             request.addHeader("Accept-Encoding", "gzip");
-            if (getUserAgent() != null) {
-                request.addHeader("User-Agent", getUserAgent());
+        }
+        if (getUserAgent() != null) {
+            request.addHeader("User-Agent", getUserAgent());
+        }
+
+        try (CloseableHttpResponse response = client.execute(request)) {
+            int code = response.getStatusLine().getStatusCode();
+            if (code == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE && resumeFrom > 0) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                return false;
+            }
+            if ((code < 200 || code > 299) && code != HttpStatus.SC_NOT_MODIFIED) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                throw newStatusException(response);
+            }
+            long lastModified = getLastModified(response);
+            if (isNotModified(code, lastModified, timestamp, dest)) {
+                //Drain anything left so the connection can be reused.
+                EntityUtils.consumeQuietly(response.getEntity());
+                deletePart(partFile);
+                return true;
+            }
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                return true;//kden..
+            }
+            if (code != HttpStatus.SC_PARTIAL_CONTENT) {
+                //Server sent the entire file.
+                resumeFrom = 0;
+            }
+            if (resume) {
+                savePartValidator(partFile, response);
             }
 
-            try (CloseableHttpResponse response = client.execute(request)) {
-                int code = response.getStatusLine().getStatusCode();
-                if ((code < 200 || code > 299) && code != HttpStatus.SC_NOT_MODIFIED) {
-                    throw new ClientProtocolException(response.getStatusLine().getReasonPhrase());
-                }
-                long lastModified = 0;
-                Header lastModifiedHeader = response.getLastHeader("Last-Modified");
-                if (lastModifiedHeader != null) {
-                    String val = lastModifiedHeader.getValue();
-                    if (!StringUtils.isEmpty(val)) {
-                        Date date = DateUtils.parseDate(val);
-                        if (date != null) {
-                            lastModified = date.getTime();
+            String humanSize = "";
+            long contentLen = entity.getContentLength();
+            if (contentLen >= 0) {
+                humanSize = toLengthText(resumeFrom + contentLen);
+            }
+            long processed = resumeFrom;
+            //Hash as the bytes stream past, rather than reading the file again afterwards.
+            Hasher hasher = expectedSha1 != null ? newSha1Hasher() : null;
+            if (hasher != null && resumeFrom > 0) {
+                hashPart(hasher, partFile, resumeFrom);
+            }
+            boolean finished = false;
+            try (InputStream is = entity.getContent()) {
+                try (FileOutputStream fos = new FileOutputStream(Utils.makeFile(partFile), resumeFrom > 0)) {
+                    byte[] buffer = new byte[16384];
+                    int len;
+                    while ((len = is.read(buffer)) >= 0) {
+                        if (rateLimiter != null) {
+                            rateLimiter.acquire(len);
+                        }
+                        fos.write(buffer, 0, len);
+                        if (hasher != null) {
+                            hasher.putBytes(buffer, 0, len);
+                        }
+                        processed += len;
+                        if (progressLogger != null) {
+                            progressLogger.progress(toLengthText(processed) + "/" + humanSize + " downloaded");
                         }
                     }
+                    fos.flush();
+                    finished = true;
                 }
-                if ((code == HttpStatus.SC_NOT_MODIFIED || (lastModified != 0 && timestamp >= lastModified)) && fileUpToDate.isSatisfiedBy(dest)) {
-                    if (!quiet) {
-                        project.getLogger().info("Not Modified. Skipping '{}'.", src);
-                    }
-                    upToDate = true;
-                    return;
-                }
-                HttpEntity entity = response.getEntity();
-                if (entity == null) {
-                    return;//kden..
+            } finally {
+                //Keep what we have if resuming, the next attempt will pick up from here.
+                if (!finished && !resume) {
+                    deletePart(partFile);
                 }
+            }
+            verify(partFile, processed, hasher);
+            commit(response, partFile, dest, lastModified);
+        }
+        return true;
+    }
+
+    /**
+     * Attempts to download the file as multiple byte ranges in parallel.
+     *
+     * @return False if the server doesn't support ranges or the file is too small to bother.
+     */
+    private boolean executeSegmented(URL src, File dest, File partFile) throws IOException {
+        CloseableHttpClient client = getHttpClient();
+        HttpHead head = new HttpHead(src.toString());
+        long timestamp = addConditionalHeaders(head, src, dest);
+        head.addHeader("Accept-Encoding", "identity");
+        if (getUserAgent() != null) {
+            head.addHeader("User-Agent", getUserAgent());
+        }
 
-                String humanSize = "";
-                long contentLen = entity.getContentLength();
-                if (contentLen >= 0) {
-                    humanSize = toLengthText(contentLen);
+        CloseableHttpResponse headResponse = client.execute(head);
+        headResponse.close();
+        int code = headResponse.getStatusLine().getStatusCode();
+        if ((code < 200 || code > 299) && code != HttpStatus.SC_NOT_MODIFIED) {
+            //Let the single request report the error, some servers just don't like HEAD.
+            return false;
+        }
+        long lastModified = getLastModified(headResponse);
+        if (isNotModified(code, lastModified, timestamp, dest)) {
+            return true;
+        }
+        Header acceptRanges = headResponse.getFirstHeader("Accept-Ranges");
+        Header contentLength = headResponse.getFirstHeader("Content-Length");
+        if (acceptRanges == null || !"bytes".equalsIgnoreCase(acceptRanges.getValue().trim()) || contentLength == null) {
+            return false;
+        }
+        long length = Long.parseLong(contentLength.getValue().trim());
+        int count = (int) Math.min(segments, length / MIN_SEGMENT_SIZE);
+        if (count < 2) {
+            return false;
+        }
+        String validator = getValidator(headResponse);
+        if (httpClient == null) {
+            SharedHttpClient.get(project).ensureMaxPerRoute(count);
+        }
+
+        String humanSize = toLengthText(length);
+        AtomicLong processed = new AtomicLong();
+        boolean finished = false;
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        try (RandomAccessFile raf = new RandomAccessFile(Utils.makeFile(partFile), "rw")) {
+            //Preallocate, each segment writes to its own region.
+            raf.setLength(length);
+            FileChannel channel = raf.getChannel();
+            List<Future<?>> futures = new ArrayList<>();
+            long segmentSize = length / count;
+            for (int i = 0; i < count; i++) {
+                long start = i * segmentSize;
+                long end = i == count - 1 ? length - 1 : start + segmentSize - 1;
+                futures.add(executor.submit(() -> {
+                    downloadSegment(client, src, validator, channel, start, end, processed, humanSize);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted.", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException("Failed to download segment of " + src, cause);
                 }
-                long processed = 0;
-                if (progressLogger != null) {
-                    progressLogger.started();
+            }
+            finished = true;
+        } finally {
+            executor.shutdownNow();
+            //A segmented part file has holes, it can't be resumed.
+            if (!finished) {
+                deletePart(partFile);
+            }
+        }
+        if (expectedSha1 != null) {
+            //Segments arrive out of order, the only option is to hash the assembled file.
+            Hasher hasher = newSha1Hasher();
+            hashPart(hasher, partFile, length);
+            verify(partFile, length, hasher);
+        } else {
+            verify(partFile, length, null);
+        }
+        commit(headResponse, partFile, dest, lastModified);
+        return true;
+    }
+
+    private void downloadSegment(CloseableHttpClient client, URL src, String validator, FileChannel channel, long start, long end, AtomicLong processed, String humanSize) throws IOException {
+        HttpGet request = new HttpGet(src.toString());
+        request.addHeader("Range", "bytes=" + start + "-" + end);
+        if (validator != null) {
+            request.addHeader("If-Range", validator);
+        }
+        request.addHeader("Accept-Encoding", "identity");
+        if (getUserAgent() != null) {
+            request.addHeader("User-Agent", getUserAgent());
+        }
+        try (CloseableHttpResponse response = client.execute(request)) {
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT || response.getEntity() == null) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                int code = response.getStatusLine().getStatusCode();
+                if (code < 200 || code > 299) {
+                    throw newStatusException(response);
                 }
-                boolean finished = false;
-                try (InputStream is = entity.getContent()) {
-                    try (FileOutputStream fos = new FileOutputStream(Utils.makeFile(dest))) {
-                        byte[] buffer = new byte[16384];
-                        int len;
-                        while ((len = is.read(buffer)) >= 0) {
-                            fos.write(buffer, 0, len);
-                            processed += len;
-                            if (progressLogger != null) {
-                                progressLogger.progress(toLengthText(processed) + "/" + humanSize + " downloaded");
-                            }
-                        }
-                        fos.flush();
-                        finished = true;
+                throw new ClientProtocolException("Range request not honoured: " + response.getStatusLine());
+            }
+            long pos = start;
+            try (InputStream is = response.getEntity().getContent()) {
+                byte[] buffer = new byte[16384];
+                int len;
+                while ((len = is.read(buffer)) >= 0) {
+                    if (pos + len > end + 1) {
+                        throw new IOException("Server sent more than the requested range.");
+                    }
+                    if (rateLimiter != null) {
+                        rateLimiter.acquire(len);
                     }
-                } finally {
-                    if (!finished) {
-                        dest.delete();
+                    ByteBuffer buf = ByteBuffer.wrap(buffer, 0, len);
+                    while (buf.hasRemaining()) {
+                        pos += channel.write(buf, pos);
                     }
+                    long total = processed.addAndGet(len);
                     if (progressLogger != null) {
-                        progressLogger.completed();
+                        synchronized (progressLogger) {
+                            progressLogger.progress(toLengthText(total) + "/" + humanSize + " downloaded");
+                        }
                     }
                 }
-                if (onlyIfModified && lastModified > 0) {
-                    dest.setLastModified(lastModified);
+            }
+            if (pos != end + 1) {
+                throw new IOException("Segment " + start + "-" + end + " truncated at " + pos);
+            }
+        }
+    }
+
+    /**
+     * Adds the If-Modified-Since and If-None-Match headers for the existing file.
+     *
+     * @return The timestamp of the existing file, 0 if it doesn't exist.
+     */
+    private long addConditionalHeaders(HttpRequestBase request, URL src, File dest) {
+        long timestamp = 0;
+        if (dest.exists()) {
+            timestamp = dest.lastModified();
+        }
+        if (onlyIfModified && dest.exists()) {
+            request.addHeader("If-Modified-Since", DateUtils.formatDate(new Date(timestamp)));
+        }
+        if (getUseETag().isEnabled()) {
+            String etag = loadETag(src);
+            if (!getUseETag().weak && StringUtils.startsWith(etag, "W/")) {
+                etag = null;
+            }
+            if (etag != null) {
+                request.addHeader("If-None-Match", etag);
+            }
+        }
+        return timestamp;
+    }
+
+    private boolean isNotModified(int code, long lastModified, long timestamp, File dest) {
+        if ((code == HttpStatus.SC_NOT_MODIFIED || (lastModified != 0 && timestamp >= lastModified)) && fileUpToDate.isSatisfiedBy(dest)) {
+            if (!quiet) {
+                project.getLogger().info("Not Modified. Skipping '{}'.", src);
+            }
+            upToDate = true;
+            return true;
+        }
+        return false;
+    }
+
+    private static HttpStatusException newStatusException(HttpResponse response) {
+        long retryAfter = -1;
+        Header header = response.getFirstHeader("Retry-After");
+        if (header != null) {
+            String val = header.getValue().trim();
+            if (StringUtils.isNumeric(val)) {
+                retryAfter = Long.parseLong(val) * 1000;
+            } else {
+                Date date = DateUtils.parseDate(val);
+                if (date != null) {
+                    retryAfter = Math.max(0, date.getTime() - System.currentTimeMillis());
                 }
-                if (getUseETag().isEnabled()) {
-                    Header eTagHeader = response.getFirstHeader("ETag");
-                    if (eTagHeader != null) {
-                        String etag = eTagHeader.getValue();
-                        boolean isWeak = StringUtils.startsWith(etag, "W/");
-                        if (isWeak && getUseETag().warnOnWeak && !quiet) {
-                            project.getLogger().warn("Weak ETag found.");
-                        }
-                        if (!isWeak || getUseETag().weak) {
-                            saveETag(src, etag);
-                        }
-                    }
+            }
+        }
+        return new HttpStatusException(response.getStatusLine().getStatusCode(), response.getStatusLine().getReasonPhrase(), retryAfter);
+    }
+
+    private long getLastModified(HttpResponse response) {
+        Header lastModifiedHeader = response.getLastHeader("Last-Modified");
+        if (lastModifiedHeader != null) {
+            String val = lastModifiedHeader.getValue();
+            if (!StringUtils.isEmpty(val)) {
+                Date date = DateUtils.parseDate(val);
+                if (date != null) {
+                    return date.getTime();
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Checks the completed part file against the expected size and hash.
+     * On a mismatch the part file is deleted, it can never be resumed into something valid.
+     */
+    private void verify(File partFile, long length, Hasher hasher) throws IOException {
+        if (size >= 0 && length != size) {
+            deletePart(partFile);
+            throw new IOException(format("Size mismatch for ''{0}''. Expected {1} bytes, got {2}.", getSrc(), size, length));
+        }
+        if (hasher != null) {
+            downloadedHash = hasher.hash();
+            if (!downloadedHash.equals(expectedSha1)) {
+                deletePart(partFile);
+                throw new IOException(format("Hash mismatch for ''{0}''. Expected {1}, got {2}.", getSrc(), expectedSha1, downloadedHash));
+            }
+        }
+    }
+
+    @SuppressWarnings ("deprecation")
+    private static Hasher newSha1Hasher() {
+        return Hashing.sha1().newHasher();
+    }
+
+    private static void hashPart(Hasher hasher, File partFile, long length) throws IOException {
+        try (InputStream is = new FileInputStream(partFile)) {
+            byte[] buffer = new byte[16384];
+            long remaining = length;
+            int len;
+            while (remaining > 0 && (len = is.read(buffer, 0, (int) Math.min(buffer.length, remaining))) >= 0) {
+                hasher.putBytes(buffer, 0, len);
+                remaining -= len;
+            }
+        }
+    }
+
+    /**
+     * Moves the completed part file into place, stamps its modified time and saves its ETag.
+     * The move is atomic where supported, the destination is either the old file or the complete new one.
+     */
+    private void commit(HttpResponse response, File partFile, File dest, long lastModified) throws IOException {
+        Path from = partFile.toPath();
+        Path to = Utils.makeFile(dest).toPath();
+        try {
+            java.nio.file.Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            java.nio.file.Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+        deletePart(partFile);
+        if (onlyIfModified && lastModified > 0) {
+            dest.setLastModified(lastModified);
+        }
+        boolean savedETag = false;
+        if (getUseETag().isEnabled()) {
+            Header eTagHeader = response.getFirstHeader("ETag");
+            if (eTagHeader != null) {
+                String etag = eTagHeader.getValue();
+                boolean isWeak = StringUtils.startsWith(etag, "W/");
+                if (isWeak && getUseETag().warnOnWeak && !quiet) {
+                    project.getLogger().warn("Weak ETag found.");
+                }
+                if (!isWeak || getUseETag().weak) {
+                    saveETag(getSrc(), etag);
+                    savedETag = true;
                 }
             }
         }
+        if (!savedETag) {
+            //An ETag left from the old body would be sent with the next request, and describe the wrong file.
+            deleteETag();
+        }
+    }
+
+    /**
+     * Gets a validator usable with If-Range for the given response.
+     * Only strong ETags may be used, falling back to Last-Modified.
+     */
+    private String getValidator(HttpResponse response) {
+        Header eTag = response.getFirstHeader("ETag");
+        if (eTag != null && !StringUtils.startsWith(eTag.getValue(), "W/")) {
+            return eTag.getValue();
+        }
+        Header lastModified = response.getFirstHeader("Last-Modified");
+        if (lastModified != null && !StringUtils.isEmpty(lastModified.getValue())) {
+            return lastModified.getValue();
+        }
+        return null;
+    }
+
+    private String loadPartValidator(File partFile) {
+        File validatorFile = getPartValidatorFile(partFile);
+        if (!resume || !partFile.exists() || !validatorFile.exists()) {
+            return null;
+        }
+        try {
+            return Files.asCharSource(validatorFile, UTF_8).read();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void savePartValidator(File partFile, HttpResponse response) {
+        File validatorFile = getPartValidatorFile(partFile);
+        String validator = getValidator(response);
+        try {
+            if (validator == null) {
+                //Can't safely resume without a validator.
+                validatorFile.delete();
+            } else {
+                Files.asCharSink(Utils.makeFile(validatorFile), UTF_8).write(validator);
+            }
+        } catch (IOException e) {
+            project.getLogger().warn("Error saving resume validator '{}'.", validatorFile, e);
+        }
+    }
+
+    private void deletePart(File partFile) {
+        partFile.delete();
+        getPartValidatorFile(partFile).delete();
+    }
+
+    private File getPartFile() {
+        File dest = getDest();
+        return new File(dest.getAbsoluteFile().getParentFile(), dest.getName() + ".part");
+    }
+
+    private File getPartValidatorFile(File partFile) {
+        return new File(partFile.getParentFile(), partFile.getName() + ".validator");
     }
 
     protected String loadETag(URL url) {
@@ -240,6 +662,13 @@ public class DownloadAction implements DownloadSpec {
         }
     }
 
+    protected void deleteETag() {
+        File eTagFile = getETagFile();
+        if (eTagFile.exists() && !eTagFile.delete()) {
+            project.getLogger().warn("Error deleting stale ETag file '{}'.", eTagFile);
+        }
+    }
+
     private String toLengthText(long bytes) {
         if (bytes < 1024) {
             return bytes + " B";
@@ -265,7 +694,15 @@ public class DownloadAction implements DownloadSpec {
     @Override public File getETagFile() { return getETagFile_(); }
     @Override public String getUserAgent() { return userAgent; }
     @Override public boolean isQuiet() { return quiet; }
+    @Override public boolean getResume() { return resume; }
+    @Override public int getSegments() { return segments; }
+    @Override public HashCode getSha1() { return Utils.resolveHashCode(sha1); }
+    @Override public long getSize() { return size; }
+    @Override public RateLimiter getRateLimiter() { return rateLimiter; }
+    @Override public RetryPolicy getRetryPolicy() { return retryPolicy; }
+    @Override public CloseableHttpClient getHttpClient() { return httpClient != null ? httpClient : SharedHttpClient.get(project).getClient(); }
     @Override public boolean isUpToDate() { return upToDate; }
+    @Override public HashCode getDownloadedHash() { return downloadedHash; }
     @Override public void setSrc(Object src) { this.src = src; }
     @Override public void setDest(Object dest) { this.dest = dest; }
     @Override public void setOnlyIfModified(boolean onlyIfModified) { this.onlyIfModified = onlyIfModified; }
@@ -273,6 +710,13 @@ public class DownloadAction implements DownloadSpec {
     @Override public void setETagFile(Object eTagFile) { this.eTagFile = eTagFile; }
     @Override public void setUserAgent(String userAgent) { this.userAgent = userAgent; }
     @Override public void setQuiet(boolean quiet) { this.quiet = quiet; }
+    @Override public void setResume(boolean resume) { this.resume = resume; }
+    @Override public void setSegments(int segments) { this.segments = segments; }
+    @Override public void setSha1(Object sha1) { this.sha1 = sha1; }
+    @Override public void setSize(long size) { this.size = size; }
+    @Override public void setRateLimiter(RateLimiter rateLimiter) { this.rateLimiter = rateLimiter; }
+    @Override public void setRetryPolicy(RetryPolicy retryPolicy) { this.retryPolicy = retryPolicy; }
+    @Override public void setHttpClient(CloseableHttpClient httpClient) { this.httpClient = httpClient; }
     @Override public void setProgressLogger(ProgressLogger progressLogger) { this.progressLogger = progressLogger; }
     //@formatter:on
 
@@ -0,0 +1,293 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks.download;
+
+import com.google.common.util.concurrent.RateLimiter;
+import net.fabricmc.loom.util.ThrowingProducer;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs download jobs with a concurrency limit that adapts to observed throughput.
+ *
+ * Concurrency follows AIMD, the same scheme TCP uses for its congestion window.
+ * After every window of completed downloads, both bytes per second and downloads
+ * per second are compared with the previous window. Bytes per second is what matters
+ * for large files, downloads per second (concurrency over latency) for small ones.
+ * While either keeps improving the limit grows by one. When both drop, or downloads
+ * fail, the limit is cut multiplicatively. Queued jobs run largest first, so sizes
+ * trend down over a run, looking at both keeps that from reading as congestion.
+ * The limit always stays between the configured min and max.
+ *
+ * Jobs are prioritised by size, largest first, so big files don't form a long tail.
+ * An optional global bandwidth cap is shared by every download through {@link #getRateLimiter()}.
+ *
+ * Worker threads are started as jobs are queued, up to the current limit, and exit
+ * once the queue has been empty for a moment. A scheduler nothing is submitted to
+ * never starts a thread.
+ */
+public class DownloadScheduler {
+
+    private static final Logger logger = Logging.getLogger("DownloadScheduler");
+
+    //Throughput must improve by this much to justify another connection.
+    private static final double INCREASE_THRESHOLD = 1.05;
+    //Throughput dropping below this fraction of the previous window is congestion.
+    private static final double DECREASE_THRESHOLD = 0.90;
+    private static final double DECREASE_FACTOR = 0.75;
+
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final RateLimiter rateLimiter;
+    private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger workerIds = new AtomicInteger();
+    //Live workers, guarded by lock.
+    private final Set<Thread> workers = new HashSet<>();
+    private final Object lock = new Object();
+
+    private int limit;
+    private int active;
+    private volatile boolean shutdown;
+
+    //Current window.
+    private int windowJobs;
+    private int windowFailures;
+    private long windowBytes;
+    private long windowStart;
+    private double lastThroughput;
+    private double lastRate;
+
+    /**
+     * @param minConcurrency The minimum number of concurrent downloads.
+     * @param maxConcurrency The maximum number of concurrent downloads.
+     * @param bytesPerSecond The global bandwidth cap, 0 or less for none.
+     */
+    public DownloadScheduler(int minConcurrency, int maxConcurrency, long bytesPerSecond) {
+        this.minConcurrency = Math.max(1, minConcurrency);
+        this.maxConcurrency = Math.max(this.minConcurrency, maxConcurrency);
+        rateLimiter = bytesPerSecond > 0 ? RateLimiter.create(bytesPerSecond) : null;
+        limit = this.minConcurrency;
+        windowStart = System.nanoTime();
+    }
+
+    /**
+     * Queues a download.
+     *
+     * @param size The expected size of the download, larger downloads run first.
+     * @param job  The job, returns the number of bytes actually transferred.
+     *             Jobs transferring nothing don't affect the concurrency limit.
+     */
+    public void submit(long size, ThrowingProducer<Long, Throwable> job) {
+        if (shutdown) {
+            throw new IllegalStateException("Scheduler is shut down.");
+        }
+        queue.add(new Job(size, sequence.getAndIncrement(), job));
+        synchronized (lock) {
+            ensureWorkers();
+        }
+    }
+
+    /**
+     * Stops accepting new jobs, anything queued still runs.
+     */
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    /**
+     * Stops accepting new jobs, drops anything queued and interrupts running jobs.
+     */
+    public void shutdownNow() {
+        shutdown = true;
+        queue.clear();
+        synchronized (lock) {
+            workers.forEach(Thread::interrupt);
+        }
+    }
+
+    /**
+     * Waits for every queued job to finish, after {@link #shutdown()}.
+     *
+     * @return If everything finished before the timeout.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (!workers.isEmpty() || !queue.isEmpty()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The rate limiter every download should acquire its bytes from, null if uncapped.
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * The current concurrency limit.
+     */
+    public int getLimit() {
+        synchronized (lock) {
+            return limit;
+        }
+    }
+
+    //Called with the lock held.
+    private void ensureWorkers() {
+        int wanted = Math.min(limit, active + queue.size());
+        while (workers.size() < wanted) {
+            Thread thread = new Thread(this::work, "Download Worker " + workerIds.getAndIncrement());
+            thread.setDaemon(true);
+            workers.add(thread);
+            thread.start();
+        }
+    }
+
+    private void work() {
+        try {
+            while (true) {
+                synchronized (lock) {
+                    while (active >= limit) {
+                        lock.wait();
+                    }
+                    active++;
+                }
+                Job job = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (job == null) {
+                    synchronized (lock) {
+                        active--;
+                        lock.notifyAll();
+                        //Leave the pool under the same lock as the check, so a racing
+                        //submit doesn't count this worker as one still running.
+                        if (queue.isEmpty()) {
+                            workers.remove(Thread.currentThread());
+                            return;
+                        }
+                    }
+                    continue;
+                }
+                long bytes = 0;
+                boolean failed = false;
+                try {
+                    bytes = job.job.get();
+                } catch (Throwable t) {
+                    //Jobs handle their own errors, anything here is just a signal to back off.
+                    failed = true;
+                }
+                record(bytes, failed);
+                release();
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            synchronized (lock) {
+                workers.remove(Thread.currentThread());
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void release() {
+        synchronized (lock) {
+            active--;
+            lock.notifyAll();
+        }
+    }
+
+    private void record(long bytes, boolean failed) {
+        if (bytes <= 0 && !failed) {
+            return;
+        }
+        synchronized (lock) {
+            windowJobs++;
+            windowBytes += bytes;
+            if (failed) {
+                windowFailures++;
+            }
+            //Window of at least limit jobs, so every connection contributes.
+            if (windowJobs < Math.max(limit, minConcurrency) * 2) {
+                return;
+            }
+            long now = System.nanoTime();
+            double seconds = Math.max(1e-3, (now - windowStart) / 1e9);
+            double throughput = windowBytes / seconds;
+            double rate = windowJobs / seconds;
+            int oldLimit = limit;
+            boolean first = lastThroughput == 0;
+            boolean dropped = throughput < lastThroughput * DECREASE_THRESHOLD && rate < lastRate * DECREASE_THRESHOLD;
+            boolean improved = throughput > lastThroughput * INCREASE_THRESHOLD || rate > lastRate * INCREASE_THRESHOLD;
+            if (windowFailures > 0 || (!first && dropped)) {
+                limit = Math.max(minConcurrency, (int) (limit * DECREASE_FACTOR));
+            } else if (first || improved) {
+                limit = Math.min(maxConcurrency, limit + 1);
+            }
+            if (limit != oldLimit) {
+                logger.debug("Download concurrency {} -> {}, {} KB/s.", oldLimit, limit, (long) (throughput / 1024));
+                ensureWorkers();
+                lock.notifyAll();
+            }
+            lastThroughput = throughput;
+            lastRate = rate;
+            windowJobs = 0;
+            windowFailures = 0;
+            windowBytes = 0;
+            windowStart = now;
+        }
+    }
+
+    private static class Job implements Comparable<Job> {
+
+        private final long size;
+        private final long sequence;
+        private final ThrowingProducer<Long, Throwable> job;
+
+        private Job(long size, long sequence, ThrowingProducer<Long, Throwable> job) {
+            this.size = size;
+            this.sequence = sequence;
+            this.job = job;
+        }
+
+        @Override
+        public int compareTo(Job o) {
+            int c = Long.compare(o.size, size);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+}
@@ -24,6 +24,9 @@
 
 package net.fabricmc.loom.tasks.download;
 
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.RateLimiter;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.gradle.api.specs.Spec;
 import org.gradle.internal.logging.progress.ProgressLogger;
 
@@ -116,6 +119,63 @@ public interface DownloadSpec {
      */
     boolean isQuiet();
 
+    /**
+     * If interrupted downloads should be resumed.
+     * Partial downloads are kept as getDest + .part and
+     * continued with a Range request if the remote file hasn't changed.
+     *
+     * @return If resume is enabled.
+     */
+    boolean getResume();
+
+    /**
+     * The maximum number of parallel byte range requests used to
+     * download the file. Only used if the server supports ranges
+     * and the file is large enough.
+     *
+     * @return The number of segments.
+     */
+    int getSegments();
+
+    /**
+     * The expected SHA1 of the downloaded file, null if unknown.
+     * The download is hashed as it's written, and only moved into
+     * place if the hash matches.
+     *
+     * @return The expected SHA1.
+     */
+    HashCode getSha1();
+
+    /**
+     * The expected size of the downloaded file, -1 if unknown.
+     *
+     * @return The expected size in bytes.
+     */
+    long getSize();
+
+    /**
+     * Gets the RateLimiter bytes are acquired from as they are downloaded.
+     * Null if bandwidth is not limited.
+     *
+     * @return The RateLimiter.
+     */
+    RateLimiter getRateLimiter();
+
+    /**
+     * Gets the policy deciding if and when failed downloads are retried.
+     *
+     * @return The RetryPolicy.
+     */
+    RetryPolicy getRetryPolicy();
+
+    /**
+     * Gets the HTTP client used for requests.
+     * Defaults to the build wide {@link SharedHttpClient}.
+     *
+     * @return The HTTP client.
+     */
+    CloseableHttpClient getHttpClient();
+
     /**
      * To be used after the DownloadSpec has been executed,
      * will return weather the DownloadSpec was up-to-date and
@@ -125,6 +185,15 @@ public interface DownloadSpec {
      */
     boolean isUpToDate();
 
+    /**
+     * To be used after the DownloadSpec has been executed,
+     * the SHA1 of the file that was downloaded. Only available
+     * if an expected SHA1 was provided and a download occurred.
+     *
+     * @return The SHA1 of the downloaded file, or null.
+     */
+    HashCode getDownloadedHash();
+
     /**
      * Sets the source URL to download.
      *
@@ -176,6 +245,62 @@ public interface DownloadSpec {
      */
     void setQuiet(boolean quiet);
 
+    /**
+     * Sets weather interrupted downloads should be resumed.
+     * Defaults to true.
+     *
+     * @param resume If resume is enabled.
+     */
+    void setResume(boolean resume);
+
+    /**
+     * Sets the maximum number of parallel byte range requests to use.
+     * Defaults to 1, a single request.
+     *
+     * @param segments The number of segments.
+     */
+    void setSegments(int segments);
+
+    /**
+     * Sets the expected SHA1 of the downloaded file.
+     * Accepts a HashCode, a hex String or a Closure returning either.
+     *
+     * @param sha1 The expected SHA1.
+     */
+    void setSha1(Object sha1);
+
+    /**
+     * Sets the expected size of the downloaded file.
+     *
+     * @param size The expected size in bytes, -1 if unknown.
+     */
+    void setSize(long size);
+
+    /**
+     * Sets the RateLimiter to acquire downloaded bytes from.
+     * Share one between downloads to cap their combined bandwidth.
+     *
+     * @param rateLimiter The RateLimiter, null for no limit.
+     */
+    void setRateLimiter(RateLimiter rateLimiter);
+
+    /**
+     * Sets the policy deciding if and when failed downloads are retried.
+     * Defaults to 5 attempts on transient network errors and 408, 429 and 5xx
+     * gateway responses. Use {@link RetryPolicy#none()} to never retry.
+     *
+     * @param retryPolicy The RetryPolicy.
+     */
+    void setRetryPolicy(RetryPolicy retryPolicy);
+
+    /**
+     * Sets the HTTP client to use for requests.
+     * The client is never closed by this DownloadSpec.
+     *
+     * @param httpClient The HTTP client.
+     */
+    void setHttpClient(CloseableHttpClient httpClient);
+
     /**
      * Forcibly set the ProgressLogger to use for this DownloadSpec.
      * This bypasses quiet checks.
@@ -24,6 +24,9 @@
 
 package net.fabricmc.loom.tasks.download;
 
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.RateLimiter;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.internal.tasks.TaskExecutionOutcome;
 import org.gradle.api.specs.Spec;
@@ -88,7 +91,15 @@ public class DownloadTask extends DefaultTask implements DownloadSpec {
     @Override public File getETagFile() { return action.getETagFile(); }
     @Override public String getUserAgent() { return action.getUserAgent(); }
     @Override public boolean isQuiet() { return action.isQuiet(); }
+    @Override public boolean getResume() { return action.getResume(); }
+    @Override public int getSegments() { return action.getSegments(); }
+    @Override public HashCode getSha1() { return action.getSha1(); }
+    @Override public long getSize() { return action.getSize(); }
+    @Override public RateLimiter getRateLimiter() { return action.getRateLimiter(); }
+    @Override public RetryPolicy getRetryPolicy() { return action.getRetryPolicy(); }
+    @Override public CloseableHttpClient getHttpClient() { return action.getHttpClient(); }
     @Override public boolean isUpToDate() { return action.isUpToDate(); }
+    @Override public HashCode getDownloadedHash() { return action.getDownloadedHash(); }
     @Override public void setSrc(Object src) { action.setSrc(src); }
     @Override public void setDest(Object dest) { action.setDest(dest); }
     @Override public void setOnlyIfModified(boolean onlyIfModified) { action.setOnlyIfModified(onlyIfModified); }
@@ -96,6 +107,13 @@ public class DownloadTask extends DefaultTask implements DownloadSpec {
     @Override public void setETagFile(Object eTagFile) { action.setETagFile(eTagFile); }
     @Override public void setUserAgent(String userAgent) { action.setUserAgent(userAgent); }
     @Override public void setQuiet(boolean quiet) { action.setQuiet(quiet); }
+    @Override public void setResume(boolean resume) { action.setResume(resume); }
+    @Override public void setSegments(int segments) { action.setSegments(segments); }
+    @Override public void setSha1(Object sha1) { action.setSha1(sha1); }
+    @Override public void setSize(long size) { action.setSize(size); }
+    @Override public void setRateLimiter(RateLimiter rateLimiter) { action.setRateLimiter(rateLimiter); }
+    @Override public void setRetryPolicy(RetryPolicy retryPolicy) { action.setRetryPolicy(retryPolicy); }
+    @Override public void setHttpClient(CloseableHttpClient httpClient) { action.setHttpClient(httpClient); }
     @Override public void setProgressLogger(ProgressLogger logger) { action.setProgressLogger(logger); }
     //@formatter:on
 }
@@ -0,0 +1,144 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks.download;
+
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.TruncatedChunkException;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides if and when a failed download is retried.
+ *
+ * Delays grow exponentially from the initial delay up to the max delay,
+ * with full jitter, each delay is picked uniformly between 0 and the
+ * exponential value. Jitter keeps many downloads that failed together
+ * from all retrying at the same moment.
+ * A Retry-After header from the server takes precedence, up to the max delay.
+ */
+public class RetryPolicy {
+
+    private int maxAttempts = 5;
+    private long initialDelay = 500;
+    private long maxDelay = 30000;
+    private double multiplier = 2;
+    private Set<Integer> retryableStatusCodes = new HashSet<>(Arrays.asList(408, 429, 500, 502, 503, 504));
+    private List<Class<? extends Throwable>> retryableExceptions = new ArrayList<>(Arrays.asList(//
+            SocketException.class,//
+            SocketTimeoutException.class,//
+            ConnectTimeoutException.class,//
+            NoHttpResponseException.class,//
+            ConnectionClosedException.class,//
+            TruncatedChunkException.class//
+    ));
+
+    /**
+     * A policy that never retries.
+     */
+    public static RetryPolicy none() {
+        return new RetryPolicy().setMaxAttempts(1);
+    }
+
+    /**
+     * If the given failure should be retried.
+     *
+     * @param attempt The attempt that failed, starting at 1.
+     * @param t       The failure.
+     * @return If another attempt should be made.
+     */
+    public boolean shouldRetry(int attempt, Throwable t) {
+        if (attempt >= maxAttempts) {
+            return false;
+        }
+        if (t instanceof HttpStatusException) {
+            return retryableStatusCodes.contains(((HttpStatusException) t).getStatusCode());
+        }
+        return retryableExceptions.stream().anyMatch(e -> e.isInstance(t));
+    }
+
+    /**
+     * Gets the delay before the next attempt.
+     *
+     * @param attempt The attempt that failed, starting at 1.
+     * @param t       The failure.
+     * @return The delay in milliseconds.
+     */
+    public long getDelay(int attempt, Throwable t) {
+        if (t instanceof HttpStatusException && ((HttpStatusException) t).getRetryAfter() >= 0) {
+            return Math.min(maxDelay, ((HttpStatusException) t).getRetryAfter());
+        }
+        double delay = Math.min(maxDelay, initialDelay * Math.pow(multiplier, attempt - 1));
+        return (long) (ThreadLocalRandom.current().nextDouble() * delay);
+    }
+
+    public RetryPolicy setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public RetryPolicy setInitialDelay(long initialDelay) {
+        this.initialDelay = initialDelay;
+        return this;
+    }
+
+    public RetryPolicy setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+        return this;
+    }
+
+    public RetryPolicy setMultiplier(double multiplier) {
+        this.multiplier = multiplier;
+        return this;
+    }
+
+    public RetryPolicy setRetryableStatusCodes(Integer... codes) {
+        retryableStatusCodes = new HashSet<>(Arrays.asList(codes));
+        return this;
+    }
+
+    @SafeVarargs
+    public final RetryPolicy setRetryableExceptions(Class<? extends Throwable>... exceptions) {
+        retryableExceptions = new ArrayList<>(Arrays.asList(exceptions));
+        return this;
+    }
+
+    //@formatter:off
+    public int getMaxAttempts() { return maxAttempts; }
+    public long getInitialDelay() { return initialDelay; }
+    public long getMaxDelay() { return maxDelay; }
+    public double getMultiplier() { return multiplier; }
+    public Set<Integer> getRetryableStatusCodes() { return retryableStatusCodes; }
+    public List<Class<? extends Throwable>> getRetryableExceptions() { return retryableExceptions; }
+    //@formatter:on
+}
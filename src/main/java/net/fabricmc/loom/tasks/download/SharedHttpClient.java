@@ -0,0 +1,128 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks.download;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.gradle.api.Project;
+import org.gradle.api.invocation.Gradle;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A build scoped, pooling HTTP client shared by every {@link DownloadAction}.
+ *
+ * Connections are kept alive and reused between downloads, so tasks performing
+ * thousands of small downloads only pay for the TCP/TLS handshake once per connection.
+ * The client is created on first use and closed when the root build finishes.
+ */
+public class SharedHttpClient {
+
+    //Enough for the odd single download running alongside other tasks.
+    private static final int DEFAULT_MAX_PER_ROUTE = 4;
+    private static final int MAX_TOTAL = 128;
+
+    private static final Map<Gradle, SharedHttpClient> clients = new HashMap<>();
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+
+    private SharedHttpClient() {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(DEFAULT_MAX_PER_ROUTE);
+        connectionManager.setMaxTotal(MAX_TOTAL);
+        //Check pooled connections are still alive before reusing them after 2 seconds of inactivity.
+        connectionManager.setValidateAfterInactivity(2000);
+        client = HttpClientBuilder.create()//
+                .setConnectionManager(connectionManager)//
+                .evictIdleConnections(30, TimeUnit.SECONDS)//
+                .build();
+    }
+
+    /**
+     * Gets the shared client for the build the given project is part of.
+     *
+     * @param project The project.
+     * @return The shared client.
+     */
+    public static SharedHttpClient get(Project project) {
+        Gradle gradle = project.getGradle();
+        while (gradle.getParent() != null) {
+            gradle = gradle.getParent();
+        }
+        synchronized (clients) {
+            SharedHttpClient client = clients.get(gradle);
+            if (client == null) {
+                Gradle key = gradle;
+                SharedHttpClient newClient = new SharedHttpClient();
+                clients.put(key, newClient);
+                key.buildFinished(result -> {
+                    synchronized (clients) {
+                        clients.remove(key);
+                    }
+                    newClient.close();
+                });
+                client = newClient;
+            }
+            return client;
+        }
+    }
+
+    /**
+     * Ensures at least the given number of connections may be held open to a single host.
+     * Tasks downloading in parallel should call this with their thread count, so that
+     * no thread ever waits on the pool for a connection.
+     *
+     * @param maxPerRoute The number of connections.
+     */
+    public synchronized void ensureMaxPerRoute(int maxPerRoute) {
+        if (connectionManager.getDefaultMaxPerRoute() < maxPerRoute) {
+            connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        }
+        if (connectionManager.getMaxTotal() < maxPerRoute) {
+            connectionManager.setMaxTotal(maxPerRoute);
+        }
+    }
+
+    /**
+     * The client, this must not be closed by consumers.
+     *
+     * @return The client.
+     */
+    public CloseableHttpClient getClient() {
+        return client;
+    }
+
+    private void close() {
+        try {
+            client.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
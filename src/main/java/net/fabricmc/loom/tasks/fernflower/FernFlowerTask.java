@@ -27,6 +27,7 @@ package net.fabricmc.loom.tasks.fernflower;
 import net.fabricmc.loom.tasks.ForkingJavaExecTask;
 import net.fabricmc.loom.tasks.cache.CachedInput;
 import net.fabricmc.loom.tasks.cache.CachedInputTask;
+import net.fabricmc.loom.tasks.cache.TaskInputCache;
 import net.fabricmc.loom.util.ConsumingOutputStream;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.internal.project.ProjectInternal;
@@ -59,6 +60,9 @@ public class FernFlowerTask extends CachedInputTask implements ForkingJavaExecTa
 
     @TaskAction
     public void doTask() throws Throwable {
+        if (TaskInputCache.restoreOutputs(this)) {
+            return;
+        }
         Map<String, Object> options = new HashMap<>();
         options.put(IFernflowerPreferences.DECOMPILE_GENERIC_SIGNATURES, "1");
         options.put(IFernflowerPreferences.BYTECODE_SOURCE_MAPPING, "1");
@@ -32,6 +32,8 @@ import java.io.File;
 import java.io.IOException;
 import java.util.*;
 
+import static net.fabricmc.loom.util.Utils.sneaky;
+
 /**
  * Entry point for Forked FernFlower task.
  * Takes one parameter, a single file, each line is treated as command line input.
@@ -98,12 +100,16 @@ public class ForkedFFExecutor {
     public static void runFF(Map<String, Object> options, List<File> libraries, File input, File output, File lineMap) {
         IResultSaver saver = new ThreadSafeResultSaver(output, lineMap);
         IFernflowerLogger logger = new ThreadIDFFLogger();
-        Fernflower ff = new Fernflower(ThreadedFernflower::getBytecode, saver, options, logger);
+        Fernflower ff = new Fernflower(SharedArchiveProvider.INSTANCE, saver, options, logger);
         for (File library : libraries) {
             ff.addLibrary(library);
         }
         ff.addSource(input);
-        ff.decompileContext();
+        try {
+            ff.decompileContext();
+        } finally {
+            sneaky(SharedArchiveProvider.INSTANCE::close);
+        }
     }
 
     public static void runThreadedFF(Map<String, Object> options, List<File> libraries, File input, File output, File lineMap, int numThreads) {
@@ -0,0 +1,126 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks.fernflower;
+
+import org.jetbrains.java.decompiler.main.extern.IBytecodeProvider;
+import org.jetbrains.java.decompiler.util.InterpreterUtil;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static net.fabricmc.loom.util.Utils.sneaky;
+
+/**
+ * A process wide, thread safe {@link IBytecodeProvider}.
+ *
+ * FernFlower asks for class bytes one entry at a time, previously each request
+ * opened a fresh {@link ZipFile}, re-reading the central directory every time.
+ * This instead opens each archive once, builds an immutable index of its entries
+ * and serves entry bytes to any number of decompile threads concurrently.
+ *
+ * {@link ZipFile} already memory maps the central directory, entry data is read
+ * through {@link ZipFile#getInputStream}, which is safe to use concurrently.
+ *
+ * Archives stay open until {@link #close()} is called.
+ */
+public class SharedArchiveProvider implements IBytecodeProvider, Closeable {
+
+    public static final SharedArchiveProvider INSTANCE = new SharedArchiveProvider();
+
+    private final Map<String, IndexedArchive> archives = new ConcurrentHashMap<>();
+
+    @Override
+    public byte[] getBytecode(String externalPath, String internalPath) throws IOException {
+        File file = new File(externalPath);
+        if (internalPath == null) {
+            return InterpreterUtil.getBytes(file);
+        }
+        return getArchive(file).getBytes(internalPath);
+    }
+
+    private IndexedArchive getArchive(File file) {
+        return archives.computeIfAbsent(file.getAbsolutePath(), path -> sneaky(() -> new IndexedArchive(new File(path))));
+    }
+
+    /**
+     * Closes all open archives.
+     * The provider may still be used afterwards, archives will simply be re-opened.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (IndexedArchive archive : archives.values()) {
+            try {
+                archive.zipFile.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        archives.clear();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static class IndexedArchive {
+
+        private final ZipFile zipFile;
+        private final Map<String, ZipEntry> entries;
+
+        private IndexedArchive(File file) throws IOException {
+            zipFile = new ZipFile(file);
+            Map<String, ZipEntry> index = new HashMap<>(zipFile.size());
+            Enumeration<? extends ZipEntry> e = zipFile.entries();
+            while (e.hasMoreElements()) {
+                ZipEntry entry = e.nextElement();
+                if (!entry.isDirectory()) {
+                    //First entry wins, same as ZipFile.getEntry.
+                    index.putIfAbsent(entry.getName(), entry);
+                }
+            }
+            entries = Collections.unmodifiableMap(index);
+        }
+
+        private byte[] getBytes(String name) throws IOException {
+            ZipEntry entry = entries.get(name);
+            if (entry == null) {
+                throw new IOException("Entry not found: " + name);
+            }
+            return InterpreterUtil.getBytes(zipFile, entry);
+        }
+    }
+}
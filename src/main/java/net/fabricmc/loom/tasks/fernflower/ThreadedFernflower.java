@@ -35,7 +35,6 @@ import org.jetbrains.java.decompiler.struct.StructClass;
 import org.jetbrains.java.decompiler.struct.StructContext;
 import org.jetbrains.java.decompiler.struct.lazy.LazyLoader;
 import org.jetbrains.java.decompiler.util.DataInputFullStream;
-import org.jetbrains.java.decompiler.util.InterpreterUtil;
 
 import java.io.File;
 import java.io.IOException;
@@ -51,8 +50,8 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+
+import static net.fabricmc.loom.util.Utils.sneaky;
 
 /**
  * Uses some reflection to replace {@link ContextUnit} instances with a threaded impl.
@@ -125,7 +124,7 @@ public class ThreadedFernflower {
         if (logger == null) {
             logger = new NoopFFLogger();
         }
-        fernFlower = new Fernflower(ThreadedFernflower::getBytecode, new ThreadSafeResultSaver(output, lineMapFile), options, logger);
+        fernFlower = new Fernflower(SharedArchiveProvider.INSTANCE, new ThreadSafeResultSaver(output, lineMapFile), options, logger);
         rootContext = DecompilerContext.getCurrentContext();
     }
 
@@ -160,21 +159,10 @@ public class ThreadedFernflower {
         } catch (IllegalAccessException e) {
             e.printStackTrace();
         }
-        fernFlower.decompileContext();
-    }
-
-    public static byte[] getBytecode(String externalPath, String internalPath) throws IOException {
-        File file = new File(externalPath);
-        if (internalPath == null) {
-            return InterpreterUtil.getBytes(file);
-        } else {
-            try (ZipFile archive = new ZipFile(file)) {
-                ZipEntry entry = archive.getEntry(internalPath);
-                if (entry == null) {
-                    throw new IOException("Entry not found: " + internalPath);
-                }
-                return InterpreterUtil.getBytes(archive, entry);
-            }
+        try {
+            fernFlower.decompileContext();
+        } finally {
+            sneaky(SharedArchiveProvider.INSTANCE::close);
         }
     }
 
@@ -32,13 +32,11 @@ import org.cadixdev.mercury.Mercury;
 import org.cadixdev.mercury.remapper.MercuryRemapper;
 
 import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
+import java.util.*;
 
 /**
  * Created by covers1624 on 12/02/19.
@@ -52,6 +50,8 @@ public class ForkedMercuryExecutor {
         List<File> mappings = new ArrayList<>();
         String from = null;
         String to = null;
+        Map<File, File> jobs = new LinkedHashMap<>();
+        File jobInput = null;
         for (String line : args) {
             //-C= Similar to FF's cmd args.
             String opt = line.substring(0, 3);
@@ -72,6 +72,19 @@ public class ForkedMercuryExecutor {
                     }
                     output = new File(data);
                     break;
+                case 'j'://Batch job input, followed by its output.
+                    if (jobInput != null) {
+                        throw new RuntimeException("Batch input without an output: " + jobInput);
+                    }
+                    jobInput = new File(data);
+                    break;
+                case 'J'://Batch job output.
+                    if (jobInput == null) {
+                        throw new RuntimeException("Batch output without an input: " + data);
+                    }
+                    jobs.put(jobInput, new File(data));
+                    jobInput = null;
+                    break;
                 case 'm':
                     mappings.add(new File(data));
                     break;
@@ -91,14 +104,48 @@ public class ForkedMercuryExecutor {
                     throw new RuntimeException("Switch falloff: " + opt);
             }
         }
-        Objects.requireNonNull(input, "Input not set.");
-        Objects.requireNonNull(output, "Output not set.");
+        if (jobInput != null) {
+            throw new RuntimeException("Batch input without an output: " + jobInput);
+        }
         Objects.requireNonNull(from, "From mappings not set.");
         Objects.requireNonNull(to, "To mappings not set.");
+        if (!jobs.isEmpty()) {
+            if (input != null || output != null) {
+                throw new RuntimeException("Input and Output can't be used with batch jobs.");
+            }
+            runBatch(libraries, jobs, mappings, from, to);
+            return;
+        }
+        Objects.requireNonNull(input, "Input not set.");
+        Objects.requireNonNull(output, "Output not set.");
         runMercury(libraries, input, output, mappings, from, to);
     }
 
     public static void runMercury(List<File> libraries, File input, File output, List<File> mappings, String from, String to) throws Exception {
+        runMercury(libraries, input, output, readMappings(mappings, from, to));
+    }
+
+    /**
+     * Remaps many inputs in this JVM, one after another.
+     * The MappingSet is filled in lazily while remapping so it can't be shared between threads,
+     * a single copy and a single Mercury at a time keeps the fork within its heap.
+     */
+    public static void runBatch(List<File> libraries, Map<File, File> jobs, List<File> mappings, String from, String to) throws Exception {
+        MappingSet mappingSet = readMappings(mappings, from, to);
+        for (Map.Entry<File, File> job : jobs.entrySet()) {
+            runMercury(libraries, job.getKey(), job.getValue(), mappingSet);
+        }
+    }
+
+    private static MappingSet readMappings(List<File> mappings, String from, String to) throws IOException {
+        MappingSet mappingSet = MappingSet.create();
+        for (File mappingsFile : mappings) {
+            TinyReader.read(mappingsFile, from, to, mappingSet);
+        }
+        return mappingSet;
+    }
+
+    private static void runMercury(List<File> libraries, File input, File output, MappingSet mappingSet) throws Exception {
         Mercury mercury = new Mercury();
         libraries.forEach(f -> mercury.getClassPath().add(f.toPath()));
 
@@ -121,12 +168,6 @@ public class ForkedMercuryExecutor {
             outputPath = outputFs.getPath("/");
         }
 
-        MappingSet mappingSet = MappingSet.create();
-        for (File mappingsFile : mappings) {
-            try (TinyReader reader = new TinyReader(new FileReader(mappingsFile), from, to)) {
-                reader.read(mappingSet);
-            }
-        }
         mercury.getProcessors().add(MercuryRemapper.create(mappingSet));
 
         try {
@@ -24,12 +24,16 @@
 
 package net.fabricmc.loom.tasks.sourceremap;
 
+import net.fabricmc.loom.data.CompiledMappings;
 import net.fabricmc.stitch.util.Pair;
 import org.cadixdev.lorenz.MappingSet;
 import org.cadixdev.lorenz.io.MappingsReader;
+import org.cadixdev.lorenz.model.ClassMapping;
 import org.objectweb.asm.commons.Remapper;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
@@ -53,6 +57,38 @@ public class TinyReader extends MappingsReader {
         this.to = to;
     }
 
+    /**
+     * Reads the given mappings file into the MappingSet.
+     * Uses the {@link CompiledMappings} of the file, compiling them if needed, only parsing the text if that fails.
+     */
+    public static MappingSet read(File mappingsFile, String from, String to, MappingSet mappings) throws IOException {
+        CompiledMappings compiled;
+        try {
+            compiled = CompiledMappings.loadOrCompile(mappingsFile);
+        } catch (IOException e) {
+            System.err.println("Unable to compile mappings '" + mappingsFile + "', parsing them instead: " + e);
+            try (TinyReader reader = new TinyReader(new FileReader(mappingsFile), from, to)) {
+                return reader.read(mappings);
+            }
+        }
+        //Members are visited right after their owner.
+        ClassMapping<?, ?>[] owner = new ClassMapping<?, ?>[1];
+        compiled.accept(from, to, (name, nameTo, declared) -> {
+            owner[0] = mappings.getOrCreateClassMapping(name);
+            if (declared) {
+                owner[0].setDeobfuscatedName(nameTo);
+            }
+        }, (method, ownerFrom, name, desc, ownerTo, nameTo, descTo) -> {
+            ClassMapping<?, ?> classMapping = owner[0];
+            if (method) {
+                classMapping.getOrCreateMethodMapping(name, desc).setDeobfuscatedName(nameTo);
+            } else {
+                classMapping.getOrCreateFieldMapping(name, desc).setDeobfuscatedName(nameTo);
+            }
+        });
+        return mappings;
+    }
+
     //This looks at the first line of the tiny file and finds the column of the mappings, horrible but works.
     public Pair<Integer, Integer> getMappingOffset(String to, String from, String line) {
         int toOffset = -1;
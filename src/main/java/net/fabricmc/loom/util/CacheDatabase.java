@@ -0,0 +1,369 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A small append only key value store, safe to share between processes.
+ *
+ * The file is a header followed by records, each record carries a CRC, a torn or corrupt
+ * record ends the log and is overwritten by the next append. Later records replace earlier
+ * ones with the same key. Readers hold a shared lock and writers an exclusive lock, on the
+ * whole file, so concurrent builds never observe a half written record. Every access first
+ * reads whatever other processes appended since the last one.
+ *
+ * Compaction writes the live records to a temp file with the next generation and renames it
+ * over the old file. The old file is first marked as retired, processes which still have it
+ * open see the mark and reopen the path, the generation change makes them reload from scratch.
+ *
+ * File format:
+ * <pre>
+ * int   magic 'NCDB'
+ * int   version
+ * long  generation, -1 once retired
+ * records:
+ *   int    payload length
+ *   int    payload crc32
+ *   short  key length, key utf-8
+ *   byte[] value
+ * </pre>
+ * Keys are at most 65535 bytes of utf-8.
+ */
+public class CacheDatabase implements Closeable {
+
+    private static final Logger logger = Logging.getLogger("CacheDatabase");
+    private static final int MAGIC = 0x4E434442;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+    //Don't bother compacting tiny files.
+    private static final int COMPACT_THRESHOLD = 64;
+    private static final int MAX_KEY_LENGTH = 0xFFFF;
+    private static final long RETIRED = -1;
+    private static final long INVALID = -2;
+
+    private final File file;
+    private FileChannel channel;
+    private final Map<String, byte[]> entries = new HashMap<>();
+    //Generation of the file entries were read from, -1 if nothing has been read.
+    private long generation = -1;
+    //End of the last valid record read.
+    private long position = HEADER_SIZE;
+    //Records superseded by a later one.
+    private int garbage;
+
+    private CacheDatabase(File file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    /**
+     * Opens the database, creating it if it doesn't exist.
+     *
+     * @param file The file.
+     * @return The database.
+     */
+    public static CacheDatabase open(File file) throws IOException {
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        return new CacheDatabase(file, openChannel(file));
+    }
+
+    /**
+     * Gets the value stored for the given key.
+     *
+     * @param key The key.
+     * @return The value, or null.
+     */
+    public synchronized byte[] get(String key) throws IOException {
+        try (FileLock ignored = lock(true)) {
+            sync();
+        }
+        return entries.get(key);
+    }
+
+    /**
+     * Stores a value for the given key, replacing any existing value.
+     * The record is visible to other processes once this returns.
+     *
+     * @param key   The key, at most 65535 bytes of utf-8.
+     * @param value The value.
+     */
+    public synchronized void put(String key, byte[] value) throws IOException {
+        if (key.getBytes(StandardCharsets.UTF_8).length > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Key longer than " + MAX_KEY_LENGTH + " bytes: " + key.substring(0, 64) + "...");
+        }
+        try (FileLock ignored = lock(false)) {
+            if (!sync()) {
+                writeHeader(generation + 1);
+            }
+            //Drop anything torn at the end.
+            channel.truncate(position);
+            append(key, value);
+        }
+    }
+
+    /**
+     * Rewrites the file with only the live records, if enough of it is garbage.
+     */
+    public synchronized void compact() throws IOException {
+        FileChannel retired;
+        try (FileLock ignored = lock(false)) {
+            if (!sync() || garbage < COMPACT_THRESHOLD || garbage < entries.size()) {
+                return;
+            }
+            retired = rewrite();
+            if (retired == null) {
+                return;
+            }
+        }
+        retired.close();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            compact();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the live entries to a temp file and renames it over the database.
+     * Must be called holding the exclusive lock, after a sync. The lock stays held on the
+     * old file until the caller closes it, which is returned.
+     *
+     * @return The old channel, or null if the database was left as it was.
+     */
+    private FileChannel rewrite() throws IOException {
+        Path tmp = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), file.getName(), ".tmp");
+        long newGeneration = generation + 1;
+        long newPosition = HEADER_SIZE;
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                writeFully(out, header(newGeneration), 0);
+                for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                    ByteBuffer record = record(entry.getKey(), entry.getValue());
+                    writeFully(out, record, newPosition);
+                    newPosition += record.limit();
+                }
+                out.force(true);
+            }
+            //Anyone blocked on the old file must reopen the path once we let go of it.
+            writeFully(channel, header(RETIRED), 0);
+            try {
+                Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                writeFully(channel, header(generation), 0);
+                logger.warn("Failed to replace cache database '{}', leaving it uncompacted.", file, e);
+                return null;
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        FileChannel old = channel;
+        channel = openChannel(file);
+        generation = newGeneration;
+        position = newPosition;
+        garbage = 0;
+        return old;
+    }
+
+    //Must be called holding the exclusive lock, after a sync.
+    private void append(String key, byte[] value) throws IOException {
+        ByteBuffer record = record(key, value);
+        writeFully(channel, record, position);
+        position += record.limit();
+        if (entries.put(key, value) != null) {
+            garbage++;
+        }
+    }
+
+    private static ByteBuffer record(String key, byte[] value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(2 + keyBytes.length + value.length);
+        payload.putShort((short) keyBytes.length);
+        payload.put(keyBytes);
+        payload.put(value);
+        payload.flip();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.remaining());
+        record.putInt(payload.remaining());
+        record.putInt((int) crc.getValue());
+        record.put(payload);
+        record.flip();
+        return record;
+    }
+
+    /**
+     * Locks the whole file, reopening it first if another process compacted it.
+     *
+     * @param shared If a shared lock is enough.
+     * @return The lock.
+     */
+    private FileLock lock(boolean shared) throws IOException {
+        FileLock lock = channel.lock(0, Long.MAX_VALUE, shared);
+        if (channel.size() >= HEADER_SIZE && readGeneration() == RETIRED) {
+            lock.release();
+            channel.close();
+            channel = openChannel(file);
+            reset(-1);
+            //Still retired if the compacting process died before the rename, sync treats that as empty.
+            lock = channel.lock(0, Long.MAX_VALUE, shared);
+        }
+        return lock;
+    }
+
+    /**
+     * Reads anything appended since the last sync, reloading everything if the file was rewritten.
+     * Must be called holding a lock.
+     *
+     * @return If the file has a valid header.
+     */
+    private boolean sync() throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            reset(-1);
+            return false;
+        }
+        long gen = readGeneration();
+        if (gen == INVALID) {
+            logger.warn("Ignoring invalid cache database '{}'.", file);
+        }
+        if (gen < 0) {
+            reset(-1);
+            return false;
+        }
+        if (gen != generation) {
+            reset(gen);
+        }
+        if (size <= position) {
+            return true;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) (size - position));
+        readFully(buffer, position);
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int start = buffer.position();
+            int len = buffer.getInt();
+            int expected = buffer.getInt();
+            if (len < 2 || len > buffer.remaining()) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), buffer.position(), len);
+            if ((int) crc.getValue() != expected) {
+                logger.warn("Corrupt record in cache database '{}' at {}, dropping the rest.", file, position + start);
+                break;
+            }
+            byte[] key = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(key);
+            byte[] value = new byte[len - 2 - key.length];
+            buffer.get(value);
+            if (entries.put(new String(key, StandardCharsets.UTF_8), value) != null) {
+                garbage++;
+            }
+            position += buffer.position() - start;
+        }
+        return true;
+    }
+
+    private void reset(long generation) {
+        this.generation = generation;
+        position = HEADER_SIZE;
+        garbage = 0;
+        entries.clear();
+    }
+
+    /**
+     * Reads the generation from the header.
+     *
+     * Must be called with at least HEADER_SIZE bytes in the file.
+     *
+     * @return The generation, {@link #RETIRED} or {@link #INVALID}.
+     */
+    private long readGeneration() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            return INVALID;
+        }
+        return header.getLong();
+    }
+
+    private void writeHeader(long generation) throws IOException {
+        channel.truncate(0);
+        writeFully(channel, header(generation), 0);
+        reset(generation);
+    }
+
+    private static ByteBuffer header(long generation) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(generation);
+        header.flip();
+        return header;
+    }
+
+    private static FileChannel openChannel(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void readFully(ByteBuffer buffer, long pos) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, pos);
+            if (read == -1) {
+                throw new IOException("Unexpected end of file: " + file);
+            }
+            pos += read;
+        }
+        buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long pos) throws IOException {
+        while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+        }
+    }
+}
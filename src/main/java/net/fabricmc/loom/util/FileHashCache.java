@@ -0,0 +1,362 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * A persistent ledger of file content hashes, keyed by file metadata.
+ *
+ * Each entry is keyed by canonical path and records the size, last modified time
+ * and file key (inode where available) of a file at the time it was hashed.
+ * As long as those still match, the stored hash is trusted and the file is never
+ * read, a single stat is all that is needed. As soon as any of them change the file
+ * is re-hashed.
+ *
+ * A file read within {@link #RACY_WINDOW} of being modified could be modified again
+ * without its timestamp changing, so its hash is not trusted until it is seen again.
+ * Hashes recorded with {@link #put(File, HashCode)} are for finished files and always trusted.
+ *
+ * Optionally, archives can be hashed by content instead of by bytes, see {@link #load(File, String, HashFunction, boolean)}.
+ *
+ * Caches are shared by every build, and files come and go. Entries not used within
+ * {@link #MAX_AGE} are dropped when saving, so the cache only holds files still in use.
+ *
+ * Instances are thread safe, {@link #save()} only writes if something changed.
+ */
+public class FileHashCache {
+
+    private static final Logger logger = Logging.getLogger("FileHashCache");
+    //Coarsest timestamp resolution we expect from a filesystem.
+    private static final long RACY_WINDOW = 2000;
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(30);
+    //Last use is only bumped this often, so a build that only reads the cache doesn't rewrite it.
+    private static final long TOUCH_INTERVAL = TimeUnit.DAYS.toMillis(1);
+    private static final Gson gson = new GsonBuilder().registerTypeAdapterFactory(Utils.hashCodeStringTypeFactory).create();
+    //1M direct buffer, files are read straight into native memory and never copied onto the heap by the channel.
+    private static final ThreadLocal<ByteBuffer> directBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(1024 * 1024));
+
+    private final File cacheFile;
+    private final String algorithm;
+    private final HashFunction hashFunction;
+    private final boolean normaliseArchives;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    private FileHashCache(File cacheFile, String algorithm, HashFunction hashFunction, boolean normaliseArchives) {
+        this.cacheFile = cacheFile;
+        this.algorithm = normaliseArchives ? algorithm + "+archives" : algorithm;
+        this.hashFunction = hashFunction;
+        this.normaliseArchives = normaliseArchives;
+    }
+
+    /**
+     * Loads the cache from the given file.
+     * If the file doesn't exist, is corrupt, or was written for a different
+     * algorithm, an empty cache is returned.
+     *
+     * @param cacheFile    The file backing the cache.
+     * @param algorithm    A unique name for the HashFunction, stored in the cache file.
+     * @param hashFunction The HashFunction.
+     * @return The cache.
+     */
+    public static FileHashCache load(File cacheFile, String algorithm, HashFunction hashFunction) {
+        return load(cacheFile, algorithm, hashFunction, false);
+    }
+
+    /**
+     * Loads the cache from the given file.
+     *
+     * With normaliseArchives, jars and zips are hashed from their sorted entry names, CRCs and sizes,
+     * as recorded in the central directory, ignoring timestamps, entry order and other zip metadata.
+     * A jar rebuilt with identical content keeps its hash, and entry content is never read.
+     * Hashes computed this way are not the hash of the file's bytes, so can't be used to verify downloads.
+     *
+     * @param cacheFile         The file backing the cache.
+     * @param algorithm         A unique name for the HashFunction, stored in the cache file.
+     * @param hashFunction      The HashFunction.
+     * @param normaliseArchives If archives should be hashed by content.
+     * @return The cache.
+     */
+    public static FileHashCache load(File cacheFile, String algorithm, HashFunction hashFunction, boolean normaliseArchives) {
+        FileHashCache cache = new FileHashCache(cacheFile, algorithm, hashFunction, normaliseArchives);
+        if (cacheFile.exists()) {
+            try {
+                CacheFile data = Utils.fromJson(gson, cacheFile, CacheFile.class);
+                if (data != null && cache.algorithm.equals(data.algorithm) && data.entries != null) {
+                    long now = System.currentTimeMillis();
+                    for (Entry entry : data.entries.values()) {
+                        //Written before last use was tracked.
+                        if (entry.lastUsed == 0) {
+                            entry.lastUsed = now;
+                        }
+                    }
+                    cache.entries.putAll(data.entries);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Ignoring corrupt hash cache '{}'.", cacheFile, e);
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Gets the hash of the given file.
+     * Reads the file only if it's metadata doesn't match what was recorded.
+     *
+     * @param file The file.
+     * @return The hash.
+     */
+    public HashCode getHash(File file) {
+        String key = getKey(file);
+        FileMeta meta = FileMeta.of(file);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.matches(meta)) {
+            long now = System.currentTimeMillis();
+            if (now - entry.lastUsed > TOUCH_INTERVAL) {
+                entry.lastUsed = now;
+                dirty = true;
+            }
+            return entry.hash;
+        }
+        return rehash(file, meta);
+    }
+
+    /**
+     * Forcibly reads and hashes the given file, ignoring anything recorded.
+     *
+     * @param file The file.
+     * @return The hash.
+     */
+    public HashCode rehash(File file) {
+        return rehash(file, FileMeta.of(file));
+    }
+
+    /**
+     * Records a hash computed elsewhere for the given file.
+     * The file's current metadata is recorded alongside it.
+     *
+     * @param file The file.
+     * @param hash The hash of the file's content.
+     */
+    public void put(File file, HashCode hash) {
+        put(file, FileMeta.of(file), hash, false);
+    }
+
+    /**
+     * Forgets anything recorded about the given file.
+     *
+     * @param file The file.
+     */
+    public void remove(File file) {
+        if (entries.remove(getKey(file)) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Drops entries not used within {@link #MAX_AGE}, then writes the cache to disk if anything has changed.
+     * The file is replaced atomically, concurrent builds may race
+     * but will never observe a partially written file.
+     */
+    public synchronized void save() {
+        long cutoff = System.currentTimeMillis() - MAX_AGE;
+        if (entries.values().removeIf(e -> e.lastUsed < cutoff)) {
+            dirty = true;
+        }
+        if (!dirty) {
+            return;
+        }
+        CacheFile data = new CacheFile();
+        data.algorithm = algorithm;
+        data.entries = entries;
+        File tmp = null;
+        try {
+            //Unique per save, builds sharing this cache must not write into each other's temp file.
+            Path dir = Files.createDirectories(cacheFile.getAbsoluteFile().getParentFile().toPath());
+            tmp = Files.createTempFile(dir, cacheFile.getName(), ".tmp").toFile();
+            Utils.toJson(gson, data, CacheFile.class, tmp);
+            Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to save hash cache '{}'.", cacheFile, e);
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private HashCode rehash(File file, FileMeta meta) {
+        HashCode hash = normaliseArchives && isArchive(file) ? hashArchive(file) : null;
+        if (hash == null) {
+            hash = hashBytes(file);
+        }
+        //Read while possibly still being written, don't trust it until seen again.
+        put(file, meta, hash, System.currentTimeMillis() - meta.lastModified <= RACY_WINDOW);
+        return hash;
+    }
+
+    private HashCode hashBytes(File file) {
+        Hasher hasher = hashFunction.newHasher();
+        ByteBuffer buffer = directBuffer.get();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                hasher.putBytes(buffer);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read file: " + file, e);
+        }
+        return hasher.hash();
+    }
+
+    /**
+     * Hashes the archive's entries in name order, from the central directory alone.
+     *
+     * @return The hash, or null if the file isn't a valid zip.
+     */
+    private HashCode hashArchive(File file) {
+        List<ZipEntry> zipEntries = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> e = zip.entries();
+            while (e.hasMoreElements()) {
+                ZipEntry entry = e.nextElement();
+                if (!entry.isDirectory()) {
+                    zipEntries.add(entry);
+                }
+            }
+        } catch (ZipException e) {
+            logger.debug("'{}' is not a valid archive, hashing its bytes.", file);
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read file: " + file, e);
+        }
+        zipEntries.sort(Comparator.comparing(ZipEntry::getName));
+        Hasher hasher = hashFunction.newHasher();
+        for (ZipEntry entry : zipEntries) {
+            byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+            hasher.putInt(name.length);
+            hasher.putBytes(name);
+            hasher.putLong(entry.getCrc());
+            hasher.putLong(entry.getSize());
+        }
+        return hasher.hash();
+    }
+
+    private static boolean isArchive(File file) {
+        String name = file.getName();
+        return name.endsWith(".jar") || name.endsWith(".zip");
+    }
+
+    private void put(File file, FileMeta meta, HashCode hash, boolean racy) {
+        Entry entry = new Entry();
+        entry.size = meta.size;
+        entry.lastModified = meta.lastModified;
+        entry.fileKey = meta.fileKey;
+        entry.hash = hash;
+        entry.racy = racy;
+        entry.lastUsed = System.currentTimeMillis();
+        entries.put(getKey(file), entry);
+        dirty = true;
+    }
+
+    //Canonical, so the same file reached through different paths shares an entry.
+    private static String getKey(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    private static class FileMeta {
+
+        private final long size;
+        private final long lastModified;
+        private final String fileKey;
+
+        private FileMeta(long size, long lastModified, String fileKey) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+        }
+
+        private static FileMeta of(File file) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                Object fileKey = attrs.fileKey();
+                return new FileMeta(attrs.size(), attrs.lastModifiedTime().toMillis(), fileKey != null ? fileKey.toString() : null);
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to read attributes of file: " + file, e);
+            }
+        }
+    }
+
+    private static class Entry {
+
+        public long size;
+        public long lastModified;
+        public String fileKey;
+        public HashCode hash;
+        public boolean racy;
+        public long lastUsed;
+
+        private boolean matches(FileMeta meta) {
+            return hash != null && !racy && size == meta.size && lastModified == meta.lastModified && Objects.equals(fileKey, meta.fileKey);
+        }
+    }
+
+    private static class CacheFile {
+
+        public String algorithm;
+        public Map<String, Entry> entries;
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * A content addressed store of files, keyed by their hex encoded hash.
+ *
+ * Objects live at {@code <dir>/objects/<first 2 chars>/<hash>} and are hard linked
+ * into whatever layout consumers expect, identical files across versions are only
+ * ever downloaded and stored once. Where hard links aren't possible (different
+ * volumes, filesystems without link support) the object is copied instead.
+ *
+ * Each version's layout is recorded as a manifest of path to hash under
+ * {@code <dir>/manifests/<name>.json}, so a layout can be rebuilt without the
+ * original index. The name of the manifest laid out last is kept in
+ * {@code <dir>/current}, that is what the next sync, of any version, starts from.
+ *
+ * Objects are shared, so they are made read only once in place, see {@link #seal}.
+ */
+public class ObjectStore {
+
+    private static final Logger logger = Logging.getLogger("ObjectStore");
+    private static final Gson gson = new Gson();
+    private static final Type MANIFEST_TYPE = new TypeToken<TreeMap<String, String>>() {}.getType();
+
+    private final File objectsDir;
+    private final File manifestsDir;
+    private final File currentFile;
+    private volatile boolean linksSupported = true;
+
+    public ObjectStore(File dir) {
+        objectsDir = new File(dir, "objects");
+        manifestsDir = new File(dir, "manifests");
+        currentFile = new File(dir, "current");
+    }
+
+    /**
+     * Gets the location of the object with the given hash.
+     * The object may not exist.
+     *
+     * @param hash The hex encoded hash.
+     * @return The object.
+     */
+    public File getObject(String hash) {
+        return new File(objectsDir, hash.substring(0, 2) + "/" + hash);
+    }
+
+    /**
+     * Links the given object into place, replacing anything already there.
+     * Does nothing if the target is already the object.
+     *
+     * @param hash   The hex encoded hash of the object.
+     * @param target The file to link.
+     */
+    public void link(String hash, File target) throws IOException {
+        Path object = getObject(hash).toPath();
+        Path to = target.getAbsoluteFile().toPath();
+        if (isSameFile(object, to)) {
+            return;
+        }
+        //Link or copy to a temp file then move it over the target, the target is never missing or partial.
+        Path tmp = to.resolveSibling(to.getFileName() + ".link");
+        Files.createDirectories(to.getParent());
+        Files.deleteIfExists(tmp);
+        if (!tryLink(tmp, object)) {
+            Files.copy(object, tmp, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+        try {
+            move(tmp, to);
+        } catch (AccessDeniedException e) {
+            //Windows won't replace a read only file, the target is most likely a link to another object.
+            target.setWritable(true);
+            move(tmp, to);
+        }
+    }
+
+    /**
+     * Adds an existing, already verified, file to the store.
+     * The file is linked into the store, and left where it is.
+     * Does nothing if the object already exists.
+     *
+     * @param hash The hex encoded hash of the file.
+     * @param file The file.
+     */
+    public void adopt(String hash, File file) throws IOException {
+        File object = getObject(hash);
+        if (object.exists()) {
+            return;
+        }
+        Path tmp = new File(object.getParentFile(), hash + ".adopt").toPath();
+        Files.createDirectories(tmp.getParent());
+        Files.deleteIfExists(tmp);
+        if (!tryLink(tmp, file.toPath())) {
+            Files.copy(file.toPath(), tmp, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+        move(tmp, object.toPath());
+        seal(hash);
+    }
+
+    /**
+     * Makes the object with the given hash read only.
+     * Links share the permissions of the object, so anything writing
+     * through a linked layout fails, rather than silently changing every
+     * layout sharing the object.
+     *
+     * @param hash The hex encoded hash of the object.
+     */
+    public void seal(String hash) {
+        File object = getObject(hash);
+        if (object.exists() && !object.setWritable(false, false)) {
+            logger.info("Unable to make object '{}' read only.", object);
+        }
+    }
+
+    /**
+     * Deletes the object with the given hash, i.e. when it is found to be corrupt.
+     *
+     * @param hash The hex encoded hash of the object.
+     */
+    public void remove(String hash) throws IOException {
+        File object = getObject(hash);
+        if (object.exists()) {
+            object.setWritable(true);
+            Files.delete(object.toPath());
+        }
+    }
+
+    /**
+     * Reads the manifest with the given name.
+     *
+     * @param name The name of the manifest.
+     * @return The manifest, path to hash, or null if it doesn't exist or can't be read.
+     */
+    public Map<String, String> readManifest(String name) {
+        File file = getManifest(name);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return Utils.fromJson(gson, file, MANIFEST_TYPE);
+        } catch (RuntimeException e) {
+            logger.warn("Ignoring corrupt manifest '{}'.", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the manifest with the given name.
+     *
+     * @param name     The name of the manifest.
+     * @param manifest The manifest, path to hash.
+     */
+    public void writeManifest(String name, Map<String, String> manifest) throws IOException {
+        File file = getManifest(name);
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        Utils.toJson(gson, new TreeMap<>(manifest), MANIFEST_TYPE, tmp);
+        move(tmp.toPath(), file.toPath());
+    }
+
+    /**
+     * Gets the names of all manifests in the store.
+     *
+     * @return The names.
+     */
+    public List<String> getManifestNames() {
+        String[] files = manifestsDir.list((dir, name) -> name.endsWith(".json"));
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.stream(files).map(e -> e.substring(0, e.length() - ".json".length())).sorted().collect(Collectors.toList());
+    }
+
+    /**
+     * Gets the name of the manifest that was laid out last.
+     *
+     * @return The name, or null if nothing has been laid out through the store yet.
+     */
+    public String getCurrentManifest() {
+        if (!currentFile.exists()) {
+            return null;
+        }
+        try {
+            String name = new String(Files.readAllBytes(currentFile.toPath()), StandardCharsets.UTF_8).trim();
+            return name.isEmpty() ? null : name;
+        } catch (IOException e) {
+            logger.warn("Unable to read current manifest name from '{}'.", currentFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Records the manifest with the given name as the one laid out last.
+     *
+     * @param name The name of the manifest.
+     */
+    public void setCurrentManifest(String name) throws IOException {
+        File tmp = new File(currentFile.getParentFile(), currentFile.getName() + ".tmp");
+        Files.createDirectories(tmp.getParentFile().toPath());
+        Files.write(tmp.toPath(), name.getBytes(StandardCharsets.UTF_8));
+        move(tmp.toPath(), currentFile.toPath());
+    }
+
+    public File getManifest(String name) {
+        return new File(manifestsDir, name + ".json");
+    }
+
+    private boolean tryLink(Path link, Path existing) throws IOException {
+        if (!linksSupported) {
+            return false;
+        }
+        try {
+            Files.createLink(link, existing);
+            return true;
+        } catch (UnsupportedOperationException e) {
+            //Filesystem will never support it, stop trying.
+            linksSupported = false;
+            logger.info("Hard links not supported, objects will be copied.");
+            return false;
+        } catch (FileSystemException e) {
+            //Most likely a cross device link, copy this one.
+            return false;
+        }
+    }
+
+    private static boolean isSameFile(Path a, Path b) throws IOException {
+        try {
+            return Files.exists(b) && Files.isSameFile(a, b);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import net.fabricmc.loom.NavigatorGradleExtension;
+import net.fabricmc.loom.NavigatorGradlePlugin;
+import net.fabricmc.loom.data.VersionInfoJson;
+import net.fabricmc.loom.data.VersionManifestJson;
+import net.fabricmc.loom.tasks.download.DownloadAction;
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Lazily resolves StarMade version metadata.
+ *
+ * Nothing is downloaded or parsed until something first asks for it, so builds
+ * that never touch StarMade (`gradle tasks`, most of an IDE sync) pay nothing.
+ * Downloaded metadata is cached in the user cache and only checked for changes
+ * once the TTL has expired. In offline mode, the cache is always used and the
+ * network is never touched, if the cache is missing the build fails.
+ * If a refresh fails while online, the cache is used with a warning.
+ */
+public class StarMadeVersionResolver {
+
+    private static final Logger logger = Logging.getLogger("StarMadeVersionResolver");
+
+    private final Project project;
+    private final NavigatorGradleExtension extension;
+    private final File userCache;
+
+    private VersionManifestJson.Version version;
+    private VersionInfoJson versionInfo;
+
+    public StarMadeVersionResolver(Project project, NavigatorGradleExtension extension, File userCache) {
+        this.project = project;
+        this.extension = extension;
+        this.userCache = userCache;
+    }
+
+    /**
+     * Gets the manifest entry for the configured version, resolving it if needed.
+     *
+     * @return The version.
+     */
+    public synchronized VersionManifestJson.Version getVersion() {
+        if (version == null) {
+            File manifestFile = new File(userCache, "versions/version_manifest.lst");
+            boolean refreshed = refresh(manifestFile, NavigatorGradlePlugin.RESOURCES_URL + "releasebuildindex", false);
+            Optional<VersionManifestJson.Version> found = findVersion(manifestFile);
+            if (!found.isPresent() && !refreshed && !isOffline()) {
+                //Cached manifest may predate the version, check for a new one.
+                refresh(manifestFile, NavigatorGradlePlugin.RESOURCES_URL + "releasebuildindex", true);
+                found = findVersion(manifestFile);
+            }
+            version = found.orElseThrow(() -> new RuntimeException("Failed to find StarMade version: " + extension.version));
+        }
+        return version;
+    }
+
+    /**
+     * Gets the version info for the configured version, resolving it if needed.
+     *
+     * @return The version info.
+     */
+    public synchronized VersionInfoJson getVersionInfo() {
+        if (versionInfo == null) {
+            VersionManifestJson.Version version = getVersion();
+            File versionFile = new File(userCache, format("versions/{0}/checksums.lst", extension.version));
+            refresh(versionFile, version.url + "checksums", false);
+            try {
+                versionInfo = VersionInfoJson.fromStarMadeChecksums(versionFile, new URL(version.url));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read version checksums: " + versionFile, e);
+            }
+        }
+        return versionInfo;
+    }
+
+    /**
+     * Ensures the given metadata file is present and fresh.
+     *
+     * @param file  The file.
+     * @param url   Where to get it from.
+     * @param force Ignore the TTL.
+     * @return If the remote was checked.
+     */
+    private boolean refresh(File file, String url, boolean force) {
+        File checkedMarker = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".checked");
+        if (isOffline()) {
+            if (!file.exists()) {
+                throw new RuntimeException(format("Running offline and ''{0}'' is not cached. Run once online first.", file));
+            }
+            return false;
+        }
+        long ttl = TimeUnit.MINUTES.toMillis(extension.versionMetadataTtl);
+        if (!force && file.exists() && checkedMarker.exists() && System.currentTimeMillis() - checkedMarker.lastModified() < ttl) {
+            return false;
+        }
+        DownloadAction action = new DownloadAction(project);
+        action.setSrc(url);
+        action.setDest(file);
+        action.setUseETag(true);
+        action.setOnlyIfModified(true);
+        action.setQuiet(true);
+        try {
+            action.execute();
+        } catch (IOException | RuntimeException e) {
+            if (!file.exists()) {
+                throw new RuntimeException("Failed to download: " + url, e);
+            }
+            logger.warn("Failed to refresh '{}', using cached copy. {}", url, e.toString());
+            return false;
+        }
+        Utils.makeFile(checkedMarker).setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    private Optional<VersionManifestJson.Version> findVersion(File manifestFile) {
+        try {
+            return VersionManifestJson.fromStarMadeIndex(manifestFile).findVersion(extension.version);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read version manifest: " + manifestFile, e);
+        }
+    }
+
+    private boolean isOffline() {
+        return project.getGradle().getStartParameter().isOffline();
+    }
+}
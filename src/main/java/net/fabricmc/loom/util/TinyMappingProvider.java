@@ -0,0 +1,90 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import net.fabricmc.loom.data.CompiledMappings;
+import net.fabricmc.tinyremapper.IMappingProvider;
+import net.fabricmc.tinyremapper.TinyUtils;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Feeds tiny-remapper from {@link CompiledMappings}, skipping the text parse.
+ *
+ * Produces the same maps as {@link TinyUtils#createTinyMappingProvider}: classes by name,
+ * fields keyed {@code owner/name;;desc} and methods {@code owner/namedesc}, all in the
+ * source namespace, mapped to {@code owner/name} in the target namespace.
+ */
+public class TinyMappingProvider implements IMappingProvider {
+
+    private static final Logger logger = Logging.getLogger("TinyMappingProvider");
+
+    private final CompiledMappings mappings;
+    private final String from;
+    private final String to;
+
+    private TinyMappingProvider(CompiledMappings mappings, String from, String to) {
+        this.mappings = mappings;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Creates a provider for the given tiny file, from its compiled form, compiling it if needed.
+     * Only if that fails is the text parsed by tiny-remapper instead.
+     *
+     * @param file The tiny mappings file.
+     * @param from The source namespace.
+     * @param to   The target namespace.
+     * @return The provider.
+     */
+    public static IMappingProvider create(File file, String from, String to) {
+        try {
+            return new TinyMappingProvider(CompiledMappings.loadOrCompile(file), from, to);
+        } catch (IOException e) {
+            logger.warn("Unable to compile mappings '{}', parsing them instead.", file, e);
+            return TinyUtils.createTinyMappingProvider(file.toPath(), from, to);
+        }
+    }
+
+    @Override
+    public void load(Map<String, String> classMap, Map<String, String> fieldMap, Map<String, String> methodMap) {
+        mappings.accept(from, to, (name, nameTo, declared) -> {
+            if (declared) {
+                classMap.put(name, nameTo);
+            }
+        }, (method, owner, name, desc, ownerTo, nameTo, descTo) -> {
+            if (method) {
+                methodMap.put(owner + "/" + name + desc, ownerTo + "/" + nameTo);
+            } else {
+                fieldMap.put(owner + "/" + name + ";;" + desc, ownerTo + "/" + nameTo);
+            }
+        });
+    }
+}
@@ -304,6 +304,18 @@ public class Utils {
         throw new IllegalArgumentException("Object is not an instance of String or CharSequence.");
     }
 
+    public static HashCode resolveHashCode(Object obj) {
+        if (obj instanceof Closure) {
+            obj = ((Closure) obj).call();
+        }
+        if (obj == null || obj instanceof HashCode) {
+            return (HashCode) obj;
+        } else if (obj instanceof CharSequence) {
+            return HashCode.fromString(obj.toString());
+        }
+        throw new IllegalArgumentException("Object is not an instance of HashCode, String or CharSequence.");
+    }
+
     public static Closure<File> laterTaskOutput(TaskProvider<? extends Task> task) {
         return laterTaskOutput(task.get());
     }
@@ -334,6 +346,11 @@ public class Utils {
         return (Closure<URL>) later(supplier);
     }
 
+    @SuppressWarnings ("unchecked")
+    public static Closure<HashCode> laterHashCode(Supplier<HashCode> supplier) {
+        return (Closure<HashCode>) later(supplier);
+    }
+
     public static Closure later(Supplier supplier) {
         return new Closure<Object>(Utils.class) {
             //@formatter:off
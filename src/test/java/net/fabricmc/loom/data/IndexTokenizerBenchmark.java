@@ -0,0 +1,127 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.data;
+
+import com.google.common.hash.HashCode;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Compares reading a checksum list through {@link IndexTokenizer} and through its snapshot,
+ * against the previous readLines and split parse, on a synthetic 100k line list.
+ *
+ * Run with the 'benchmark' task, -Pbenchmark=net.fabricmc.loom.data.IndexTokenizerBenchmark.
+ */
+public class IndexTokenizerBenchmark {
+
+    private static final int LINES = 100000;
+    private static final int WARMUP = 10;
+    private static final int ITERATIONS = 20;
+
+    private static long sink;
+
+    public static void main(String[] args) throws IOException {
+        File dir = Files.createTempDirectory("index-benchmark").toFile();
+        try {
+            File file = new File(dir, "checksums");
+            writeList(file);
+            System.out.printf("%d lines, %d KB%n", LINES, file.length() / 1024);
+            run("readLines + split", () -> readLegacy(file));
+            run("IndexTokenizer", () -> readTokenizer(file));
+            StarMadeChecksums.read(file, (name, size, hash) -> {});
+            run("IndexSnapshot", () -> StarMadeChecksums.read(file, (name, size, hash) -> sink += size + hash.hashCode() + name.length()));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private static void run(String name, Body body) throws IOException {
+        for (int i = 0; i < WARMUP; i++) {
+            body.run();
+        }
+        long total = 0;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            body.run();
+            long time = System.nanoTime() - start;
+            total += time;
+            best = Math.min(best, time);
+        }
+        System.out.printf("%-20s avg %7.2f ms, best %7.2f ms%n", name, total / 1e6 / ITERATIONS, best / 1e6);
+    }
+
+    //The parse StarMadeChecksums used before IndexTokenizer.
+    private static void readLegacy(File file) throws IOException {
+        for (String entry : FileUtils.readLines(file, "UTF-8")) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            String[] tokens = entry.split(" ");
+            String name = entry.substring(0, entry.length() - tokens[tokens.length - 1].length() - tokens[tokens.length - 2].length() - 2);
+            long size = Long.parseLong(tokens[tokens.length - 2]);
+            HashCode hash = HashCode.fromString(tokens[tokens.length - 1]);
+            sink += size + hash.hashCode() + name.length();
+        }
+    }
+
+    //The parse StarMadeChecksums does, without writing a snapshot.
+    private static void readTokenizer(File file) throws IOException {
+        IndexTokenizer tokenizer = IndexTokenizer.open(file);
+        while (tokenizer.nextLine()) {
+            int start = tokenizer.getLineStart();
+            int end = tokenizer.getLineEnd();
+            int hashSep = tokenizer.lastIndexOf(' ', start, end);
+            int sizeSep = tokenizer.lastIndexOf(' ', start, hashSep);
+            HashCode hash = HashCode.fromBytes(tokenizer.parseHex(hashSep + 1, end, 20));
+            long size = tokenizer.parseLong(sizeSep + 1, hashSep);
+            String name = tokenizer.getString(start, sizeSep);
+            sink += size + hash.hashCode() + name.length();
+        }
+    }
+
+    private static void writeList(File file) throws IOException {
+        Random random = new Random(42);
+        byte[] hash = new byte[20];
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            for (int i = 0; i < LINES; i++) {
+                random.nextBytes(hash);
+                String name = "./data/textures/block/" + (i % 7 == 0 ? "some block " : "block_") + i + ".png";
+                writer.print(name + " " + random.nextInt(1 << 20) + " " + HashCode.fromBytes(hash) + "\n");
+            }
+        }
+    }
+
+    private interface Body {
+
+        void run() throws IOException;
+    }
+}
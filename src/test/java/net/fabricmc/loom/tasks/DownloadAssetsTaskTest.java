@@ -0,0 +1,120 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks;
+
+import com.google.common.hash.Hashing;
+import net.fabricmc.loom.data.AssetIndexJson;
+import net.fabricmc.loom.util.FileHashCache;
+import net.fabricmc.loom.util.ObjectStore;
+import org.gradle.api.logging.Logging;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks a version switch through the object store only touches what differs between the versions.
+ */
+public class DownloadAssetsTaskTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File assetsDir;
+    private ObjectStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        assetsDir = folder.newFolder("assets");
+        store = new ObjectStore(new File(assetsDir, "store"));
+    }
+
+    @Test
+    public void versionSwitch() throws IOException {
+        Map<String, String> v1 = new HashMap<>();
+        v1.put("objects/kept", "aa01");
+        v1.put("objects/changed", "aa02");
+        v1.put("objects/removed", "aa03");
+        for (String path : v1.keySet()) {
+            write(new File(assetsDir, path));
+        }
+        store.writeManifest("1.0", v1);
+        store.setCurrentManifest("1.0");
+        //Content the new version needs at a different path than before.
+        write(store.getObject("bb04"));
+
+        Map<String, AssetIndexJson.AssetObject> v2 = new HashMap<>();
+        v2.put("objects/kept", asset("aa01"));
+        v2.put("objects/changed", asset("bb04"));
+        v2.put("objects/added", asset("cc05"));
+        AssetSyncPlan plan = DownloadAssetsTask.planSync(store, "1.1", v2);
+
+        assertNotNull("Switching versions should diff against the last layout", plan);
+        assertEquals(Collections.singleton("objects/kept"), plan.keep);
+        assertEquals(Collections.singleton("objects/changed"), plan.copy);
+        assertEquals(Collections.singleton("objects/added"), plan.fetch);
+        assertEquals(Collections.singleton("objects/removed"), plan.delete);
+
+        FileHashCache hashCache = FileHashCache.load(folder.newFile("hashes.json"), "sha256", Hashing.sha256());
+        DownloadAssetsTask.deleteStale(assetsDir, plan, hashCache, Logging.getLogger(DownloadAssetsTaskTest.class));
+        assertFalse(new File(assetsDir, "objects/removed").exists());
+        assertTrue(new File(assetsDir, "objects/kept").exists());
+        assertTrue(new File(assetsDir, "objects/changed").exists());
+    }
+
+    @Test
+    public void firstSync() {
+        assertNull(DownloadAssetsTask.planSync(store, "1.0", Collections.singletonMap("objects/a", asset("aa01"))));
+    }
+
+    @Test
+    public void legacyStore() throws IOException {
+        //Written before the current layout was recorded, the index's own manifest is still used.
+        store.writeManifest("1.0", Collections.singletonMap("objects/a", "aa01"));
+        AssetSyncPlan plan = DownloadAssetsTask.planSync(store, "1.0", Collections.singletonMap("objects/a", asset("aa01")));
+        assertNotNull(plan);
+        assertTrue(plan.isNoop());
+    }
+
+    private static AssetIndexJson.AssetObject asset(String hash) {
+        AssetIndexJson.AssetObject object = new AssetIndexJson().new AssetObject();
+        object.hash = hash;
+        object.size = 1;
+        return object;
+    }
+
+    private static void write(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), file.getName().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks;
+
+import net.fabricmc.tinyremapper.OutputConsumerPath;
+import net.fabricmc.tinyremapper.TinyRemapper;
+import net.fabricmc.tinyremapper.TinyUtils;
+import org.gradle.api.logging.Logging;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class IncrementalRemapperTest {
+
+    private static final String STATE_KEY = "state";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File mappings;
+    private IncrementalRemapper incremental;
+    private Supplier<TinyRemapper> remapper;
+
+    @Before
+    public void setUp() throws IOException {
+        mappings = folder.newFile("mappings.tiny");
+        Files.write(mappings.toPath(), String.join("\n",//
+                "v1\tnamed\tintermediary",//
+                "METHOD\ttest/Base\t()V\tinherited\tmethod_1",//
+                "METHOD\tgame/Base\t()V\tgameMethod\tmethod_2",//
+                ""//
+        ).getBytes(StandardCharsets.UTF_8));
+        incremental = new IncrementalRemapper(folder.newFolder("incremental"), Logging.getLogger("IncrementalRemapperTest"));
+        remapper = () -> TinyRemapper.newRemapper()//
+                .withMappings(TinyUtils.createTinyMappingProvider(mappings.toPath(), "named", "intermediary"))//
+                .build();
+    }
+
+    /**
+     * Only the caller changes, the method it calls is declared on an unchanged super type
+     * of an unchanged class, both must be on the classpath to remap the call site.
+     */
+    @Test
+    public void testInheritedCallInChangedClass() throws IOException {
+        File input = folder.newFile("input.jar");
+        File output = new File(folder.getRoot(), "output.jar");
+        writeJar(input, "first");
+        fullRemap(input, output);
+        assertEquals(1, getCalls(output, "test/Caller").size());
+        assertEquals("test/Sub.method_1", getCalls(output, "test/Caller").get(0));
+
+        writeJar(input, "second");
+        File incrementalOutput = new File(folder.getRoot(), "output2.jar");
+        assertTrue("Fell back to a full remap", incremental.remap(input, incrementalOutput, STATE_KEY, remapper, new Path[0]));
+        assertEquals("test/Sub.method_1", getCalls(incrementalOutput, "test/Caller").get(0));
+        assertEquals("second", getConstant(incrementalOutput, "test/Caller"));
+        //Unchanged classes are carried over from the previous output.
+        assertEquals(getEntryBytes(output, "test/Base.class").length, getEntryBytes(incrementalOutput, "test/Base.class").length);
+    }
+
+    /**
+     * Only a callee changes, to inherit the method its unchanged caller calls from a game class.
+     * The caller's bytes are the same, but the call now resolves to a mapped method.
+     */
+    @Test
+    public void testCallerOfChangedClass() throws IOException {
+        File game = folder.newFile("game.jar");
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(game.toPath()))) {
+            writeClass(zos, "game/Base", "java/lang/Object", cw -> writeMethod(cw, "gameMethod"));
+        }
+        Path[] classPath = { game.toPath() };
+        File input = folder.newFile("input.jar");
+        File output = new File(folder.getRoot(), "output.jar");
+        writeCalleeJar(input, "java/lang/Object");
+        fullRemap(input, output, classPath);
+        assertEquals("test/Callee.gameMethod", getCalls(output, "test/Caller").get(0));
+
+        writeCalleeJar(input, "game/Base");
+        File incrementalOutput = new File(folder.getRoot(), "output2.jar");
+        assertTrue("Fell back to a full remap", incremental.remap(input, incrementalOutput, STATE_KEY, remapper, classPath));
+        assertEquals("test/Callee.method_2", getCalls(incrementalOutput, "test/Caller").get(0));
+    }
+
+    @Test
+    public void testStateKeyChangeNeedsFullRemap() throws IOException {
+        File input = folder.newFile("input.jar");
+        File output = new File(folder.getRoot(), "output.jar");
+        writeJar(input, "first");
+        fullRemap(input, output);
+        assertFalse(incremental.remap(input, output, "other", remapper, new Path[0]));
+    }
+
+    private void fullRemap(File input, File output) throws IOException {
+        fullRemap(input, output, new Path[0]);
+    }
+
+    private void fullRemap(File input, File output, Path[] classPath) throws IOException {
+        TinyRemapper tinyRemapper = remapper.get();
+        try (OutputConsumerPath consumer = new OutputConsumerPath(output.toPath())) {
+            tinyRemapper.readInputs(input.toPath());
+            tinyRemapper.readClassPath(classPath);
+            tinyRemapper.apply(consumer);
+        } finally {
+            tinyRemapper.finish();
+        }
+        incremental.record(input, output, STATE_KEY);
+    }
+
+    private static void writeJar(File jar, String constant) throws IOException {
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(jar.toPath()))) {
+            writeClass(zos, "test/Base", "java/lang/Object", cw -> {
+                MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "inherited", "()V", null, null);
+                mv.visitCode();
+                mv.visitInsn(Opcodes.RETURN);
+                mv.visitMaxs(0, 1);
+                mv.visitEnd();
+            });
+            writeClass(zos, "test/Sub", "test/Base", cw -> {});
+            writeClass(zos, "test/Caller", "java/lang/Object", cw -> {
+                MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "call", "(Ltest/Sub;)Ljava/lang/String;", null, null);
+                mv.visitCode();
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "test/Sub", "inherited", "()V", false);
+                mv.visitLdcInsn(constant);
+                mv.visitInsn(Opcodes.ARETURN);
+                mv.visitMaxs(1, 1);
+                mv.visitEnd();
+            });
+        }
+    }
+
+    //Callee declares gameMethod itself until it extends the game class, the caller never changes.
+    //Padded with classes no one references, so the dirty classes stay a minority.
+    private static void writeCalleeJar(File jar, String calleeSuper) throws IOException {
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(jar.toPath()))) {
+            writeClass(zos, "test/Callee", calleeSuper, cw -> {
+                if (calleeSuper.equals("java/lang/Object")) {
+                    writeMethod(cw, "gameMethod");
+                }
+            });
+            writeClass(zos, "test/Caller", "java/lang/Object", cw -> {
+                MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "call", "(Ltest/Callee;)V", null, null);
+                mv.visitCode();
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "test/Callee", "gameMethod", "()V", false);
+                mv.visitInsn(Opcodes.RETURN);
+                mv.visitMaxs(1, 1);
+                mv.visitEnd();
+            });
+            for (int i = 0; i < 4; i++) {
+                writeClass(zos, "test/Unrelated" + i, "java/lang/Object", cw -> {});
+            }
+        }
+    }
+
+    private static void writeMethod(ClassWriter cw, String name) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, name, "()V", null, null);
+        mv.visitCode();
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 1);
+        mv.visitEnd();
+    }
+
+    private static void writeClass(ZipOutputStream zos, String name, String superName, Consumer<ClassWriter> body) throws IOException {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, superName, null);
+        body.accept(cw);
+        cw.visitEnd();
+        zos.putNextEntry(new ZipEntry(name + ".class"));
+        zos.write(cw.toByteArray());
+        zos.closeEntry();
+    }
+
+    private static List<String> getCalls(File jar, String cls) throws IOException {
+        List<String> calls = new ArrayList<>();
+        new ClassReader(getEntryBytes(jar, cls + ".class")).accept(new ClassVisitor(Opcodes.ASM7) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM7) {
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                        calls.add(owner + "." + name);
+                    }
+                };
+            }
+        }, 0);
+        return calls;
+    }
+
+    private static String getConstant(File jar, String cls) throws IOException {
+        String[] constant = new String[1];
+        new ClassReader(getEntryBytes(jar, cls + ".class")).accept(new ClassVisitor(Opcodes.ASM7) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM7) {
+                    @Override
+                    public void visitLdcInsn(Object value) {
+                        constant[0] = (String) value;
+                    }
+                };
+            }
+        }, 0);
+        return constant[0];
+    }
+
+    private static byte[] getEntryBytes(File jar, String name) throws IOException {
+        try (ZipFile zip = new ZipFile(jar)) {
+            ZipEntry entry = zip.getEntry(name);
+            assertNotNull("Missing " + name, entry);
+            try (InputStream is = zip.getInputStream(entry)) {
+                byte[] bytes = new byte[(int) entry.getSize()];
+                int read = 0;
+                while (read < bytes.length) {
+                    read += is.read(bytes, read, bytes.length - read);
+                }
+                return bytes;
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks;
+
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Mod A extends mod B, which extends a game class. A calls a game method through itself,
+ * which only remaps if B's hierarchy is known, whether or not B is remapped in the same run.
+ */
+public class RemapDependenciesTaskTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File projectDir;
+    private File gradleHome;
+    private File mappings;
+    private File game;
+    private File modA;
+    private File modB;
+    private File outputA;
+    private File outputB;
+
+    @Before
+    public void setUp() throws IOException {
+        projectDir = folder.newFolder("project");
+        gradleHome = folder.newFolder("gradle");
+        modA = new File(folder.getRoot(), "a.jar");
+        modB = new File(folder.getRoot(), "b.jar");
+        outputA = new File(folder.getRoot(), "a-remapped.jar");
+        outputB = new File(folder.getRoot(), "b-remapped.jar");
+        mappings = new File(folder.getRoot(), "mappings.tiny");
+        Files.write(mappings.toPath(), String.join("\n",//
+                "v1\tnamed\tintermediary",//
+                "CLASS\tmodb/Named\tmodb/Renamed",//
+                "METHOD\tgame/Base\t()V\tinherited\tmethod_1",//
+                ""//
+        ).getBytes(StandardCharsets.UTF_8));
+        game = new File(folder.getRoot(), "game.jar");
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(game.toPath()))) {
+            writeClass(zos, "game/Base", "java/lang/Object", cw -> {
+                MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "inherited", "()V", null, null);
+                mv.visitCode();
+                mv.visitInsn(Opcodes.RETURN);
+                mv.visitMaxs(0, 1);
+                mv.visitEnd();
+            });
+        }
+        writeModA("first");
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(modB.toPath()))) {
+            writeClass(zos, "modb/B", "game/Base", cw -> {});
+            writeClass(zos, "modb/Named", "java/lang/Object", cw -> {});
+        }
+    }
+
+    @Test
+    public void testFullRemap() throws Throwable {
+        newTask().doTask();
+        assertEquals("moda/A.method_1", getCalls(outputA, "moda/A").get(0));
+        //Renamed by the mappings, still routed to the jar it came from.
+        getEntry(outputB, "modb/Renamed.class");
+    }
+
+    @Test
+    public void testOnlyDependentChanged() throws Throwable {
+        newTask().doTask();
+        long remappedB = outputB.lastModified();
+
+        writeModA("second");
+        newTask().doTask();
+        assertEquals("Unchanged dependency was remapped again", remappedB, outputB.lastModified());
+        assertEquals("second", getConstant(outputA, "moda/A"));
+        assertEquals("moda/A.method_1", getCalls(outputA, "moda/A").get(0));
+    }
+
+    private RemapDependenciesTask newTask() {
+        //A new project for every run, like a new build, the task keeps its state in the project dir.
+        Project project = ProjectBuilder.builder().withProjectDir(projectDir).withGradleUserHomeDir(gradleHome).build();
+        RemapDependenciesTask task = project.getTasks().create("remapDependencies", RemapDependenciesTask.class);
+        task.addMappings(mappings);
+        task.setFromMappings("named");
+        task.setToMappings("intermediary");
+        task.setLibraries(game);
+        task.addDependency("a", modA, outputA);
+        task.addDependency("b", modB, outputB);
+        return task;
+    }
+
+    private void writeModA(String constant) throws IOException {
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(modA.toPath()))) {
+            writeClass(zos, "moda/A", "modb/B", cw -> {
+                MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "call", "()Ljava/lang/String;", null, null);
+                mv.visitCode();
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "moda/A", "inherited", "()V", false);
+                mv.visitLdcInsn(constant);
+                mv.visitInsn(Opcodes.ARETURN);
+                mv.visitMaxs(1, 1);
+                mv.visitEnd();
+            });
+        }
+    }
+
+    private static void writeClass(ZipOutputStream zos, String name, String superName, Consumer<ClassWriter> body) throws IOException {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, superName, null);
+        body.accept(cw);
+        cw.visitEnd();
+        zos.putNextEntry(new ZipEntry(name + ".class"));
+        zos.write(cw.toByteArray());
+        zos.closeEntry();
+    }
+
+    private static List<String> getCalls(File jar, String cls) throws IOException {
+        List<String> calls = new ArrayList<>();
+        new ClassReader(getEntry(jar, cls + ".class")).accept(new ClassVisitor(Opcodes.ASM7) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM7) {
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                        calls.add(owner + "." + name);
+                    }
+                };
+            }
+        }, 0);
+        return calls;
+    }
+
+    private static String getConstant(File jar, String cls) throws IOException {
+        String[] constant = new String[1];
+        new ClassReader(getEntry(jar, cls + ".class")).accept(new ClassVisitor(Opcodes.ASM7) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM7) {
+                    @Override
+                    public void visitLdcInsn(Object value) {
+                        constant[0] = (String) value;
+                    }
+                };
+            }
+        }, 0);
+        return constant[0];
+    }
+
+    private static byte[] getEntry(File jar, String name) throws IOException {
+        try (ZipFile zip = new ZipFile(jar)) {
+            ZipEntry entry = zip.getEntry(name);
+            assertNotNull("Missing " + name, entry);
+            try (InputStream is = zip.getInputStream(entry)) {
+                byte[] bytes = new byte[(int) entry.getSize()];
+                int read = 0;
+                while (read < bytes.length) {
+                    read += is.read(bytes, read, bytes.length - read);
+                }
+                return bytes;
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DirectoryBuildCacheBackendTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStoreThenLoad() throws IOException {
+        File dir = folder.newFolder("cache");
+        DirectoryBuildCacheBackend backend = new DirectoryBuildCacheBackend(dir, Long.MAX_VALUE, Long.MAX_VALUE);
+        File src = writeFile("src", 100);
+        backend.store("key", src);
+
+        File dest = new File(folder.getRoot(), "dest");
+        assertTrue(backend.load("key", dest));
+        assertArrayEquals(Files.readAllBytes(src.toPath()), Files.readAllBytes(dest.toPath()));
+        assertFalse(backend.load("other", dest));
+        //No temp files left behind.
+        assertArrayEquals(new String[] { "key.zip" }, dir.list());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        File dir = folder.newFolder("cache");
+        DirectoryBuildCacheBackend backend = new DirectoryBuildCacheBackend(dir, 250, TimeUnit.DAYS.toMillis(30));
+        backend.store("old", writeFile("old", 10));
+        new File(dir, "old.zip").setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(31));
+        backend.store("a", writeFile("a", 100));
+        assertFalse("Expired entry kept", new File(dir, "old.zip").exists());
+
+        new File(dir, "a.zip").setLastModified(System.currentTimeMillis() - 60000);
+        backend.store("b", writeFile("b", 100));
+        backend.store("c", writeFile("c", 100));
+        assertFalse("Least recently used entry kept", new File(dir, "a.zip").exists());
+        assertTrue(new File(dir, "b.zip").exists());
+        assertTrue(new File(dir, "c.zip").exists());
+    }
+
+    private File writeFile(String name, int size) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), new byte[size]);
+        return file;
+    }
+}
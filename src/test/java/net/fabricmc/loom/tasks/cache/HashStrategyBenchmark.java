@@ -0,0 +1,110 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks.cache;
+
+import net.fabricmc.loom.util.FileHashCache;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the throughput of each {@link HashStrategy} hashing files through {@link FileHashCache},
+ * as {@link TaskInputCache} does on a cache miss.
+ *
+ * Hashes the files given as arguments, i.e. the StarMade jar and libraries, or 256 MB of
+ * random files in 1 to 8 MB if there are none.
+ * Run with the 'benchmark' task, -Pbenchmark=net.fabricmc.loom.tasks.cache.HashStrategyBenchmark.
+ */
+public class HashStrategyBenchmark {
+
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = 10;
+
+    private static long sink;
+
+    public static void main(String[] args) throws IOException {
+        File dir = Files.createTempDirectory("hash-benchmark").toFile();
+        try {
+            List<File> files = new ArrayList<>();
+            for (String arg : args) {
+                files.add(new File(arg));
+            }
+            if (files.isEmpty()) {
+                files = writeFiles(dir);
+            }
+            long bytes = files.stream().mapToLong(File::length).sum();
+            System.out.printf("%d files, %d MB%n", files.size(), bytes / (1024 * 1024));
+            for (HashStrategy strategy : HashStrategy.values()) {
+                run(strategy, files, bytes, new File(dir, strategy.getAlgorithm() + ".json"));
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private static void run(HashStrategy strategy, List<File> files, long bytes, File cacheFile) {
+        FileHashCache cache = FileHashCache.load(cacheFile, strategy.getAlgorithm(), strategy.getFunction());
+        for (int i = 0; i < WARMUP; i++) {
+            hashAll(cache, files);
+        }
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            hashAll(cache, files);
+            long time = System.nanoTime() - start;
+            total += time;
+            best = Math.min(best, time);
+        }
+        double mb = bytes / (1024.0 * 1024.0);
+        System.out.printf("%-8s %-12s avg %8.1f ms %7.0f MB/s, best %8.1f ms%n", strategy, strategy.getAlgorithm(), total / 1e6 / ITERATIONS, mb / (total / 1e9 / ITERATIONS), best / 1e6);
+    }
+
+    private static void hashAll(FileHashCache cache, List<File> files) {
+        for (File file : files) {
+            sink += cache.rehash(file).asLong();
+        }
+    }
+
+    private static List<File> writeFiles(File dir) throws IOException {
+        Random random = new Random(42);
+        List<File> files = new ArrayList<>();
+        long remaining = 256L * 1024 * 1024;
+        while (remaining > 0) {
+            byte[] bytes = new byte[(int) Math.min(remaining, (1 + random.nextInt(8)) * 1024 * 1024)];
+            random.nextBytes(bytes);
+            File file = new File(dir, "file" + files.size() + ".bin");
+            Files.write(file.toPath(), bytes);
+            files.add(file);
+            remaining -= bytes.length;
+        }
+        return files;
+    }
+}
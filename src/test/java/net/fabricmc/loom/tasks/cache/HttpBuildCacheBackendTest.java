@@ -0,0 +1,132 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks.cache;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link HttpBuildCacheBackend} against a local HttpServer storing entries in memory.
+ */
+public class HttpBuildCacheBackendTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, byte[]> entries = new ConcurrentHashMap<>();
+    private HttpServer server;
+    private CloseableHttpClient client;
+    private HttpBuildCacheBackend backend;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/cache/", this::handle);
+        server.start();
+        client = HttpClients.createDefault();
+        backend = new HttpBuildCacheBackend(client, URI.create("http://localhost:" + server.getAddress().getPort() + "/cache"), true);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testMiss() throws IOException {
+        File dest = new File(folder.getRoot(), "dest");
+        assertFalse(backend.load("missing", dest));
+        assertFalse(dest.exists());
+    }
+
+    @Test
+    public void testStoreThenLoad() throws IOException {
+        File src = folder.newFile("src");
+        Files.write(src.toPath(), "cached output".getBytes(StandardCharsets.UTF_8));
+        backend.store("abc123", src);
+        assertArrayEquals(Files.readAllBytes(src.toPath()), entries.get("/cache/abc123"));
+
+        File dest = new File(folder.getRoot(), "dest");
+        assertTrue(backend.load("abc123", dest));
+        assertArrayEquals(Files.readAllBytes(src.toPath()), Files.readAllBytes(dest.toPath()));
+    }
+
+    @Test (expected = IOException.class)
+    public void testServerError() throws IOException {
+        backend.load("error", new File(folder.getRoot(), "dest"));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        try (InputStream is = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = is.read(buffer)) != -1) {
+                request.write(buffer, 0, len);
+            }
+        }
+        if (path.endsWith("/error")) {
+            exchange.sendResponseHeaders(500, -1);
+        } else if (exchange.getRequestMethod().equals("PUT")) {
+            entries.put(path, request.toByteArray());
+            exchange.sendResponseHeaders(201, -1);
+        } else {
+            byte[] entry = entries.get(path);
+            if (entry == null) {
+                exchange.sendResponseHeaders(404, -1);
+            } else {
+                exchange.sendResponseHeaders(200, entry.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(entry);
+                }
+            }
+        }
+        exchange.close();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks.download;
+
+import com.google.common.hash.Hashing;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link DownloadAction} against a local HttpServer, checking the shared
+ * client reuses its connections and that part files are resumed.
+ */
+public class DownloadActionTest {
+
+    private static final String ETAG = "\"v1\"";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private byte[] body;
+    private ExecutorService executor;
+    private HttpServer server;
+    private Project project;
+
+    @Before
+    public void setUp() throws IOException {
+        body = new byte[256 * 1024];
+        new Random(42).nextBytes(body);
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+        project = ProjectBuilder.builder().withProjectDir(folder.newFolder("project")).build();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            File dest = download("file" + i, null);
+            assertArrayEquals(body, Files.readAllBytes(dest.toPath()));
+        }
+        assertEquals("Connections opened for 20 downloads", 1, connections.size());
+    }
+
+    @Test
+    public void testPartFileIsResumed() throws IOException {
+        File dest = new File(folder.getRoot(), "resumed");
+        writePart(dest, 1000, ETAG);
+
+        download("resumed", dest);
+        assertEquals("bytes=1000-", ranges.get(ranges.size() - 1));
+        assertArrayEquals(body, Files.readAllBytes(dest.toPath()));
+        assertFalse(new File(dest.getPath() + ".part").exists());
+    }
+
+    @Test
+    public void testStalePartFileIsReplaced() throws IOException {
+        File dest = new File(folder.getRoot(), "stale");
+        writePart(dest, 1000, "\"v0\"");
+
+        download("stale", dest);
+        assertArrayEquals(body, Files.readAllBytes(dest.toPath()));
+    }
+
+    @SuppressWarnings ("deprecation")
+    private File download(String name, File dest) throws IOException {
+        if (dest == null) {
+            dest = new File(folder.getRoot(), name);
+        }
+        DownloadAction action = new DownloadAction(project);
+        action.setSrc("http://localhost:" + server.getAddress().getPort() + "/" + name);
+        action.setDest(dest);
+        action.setQuiet(true);
+        //Checks the resumed prefix is hashed along with the rest.
+        action.setSha1(Hashing.sha1().hashBytes(body));
+        action.execute();
+        return dest;
+    }
+
+    private void writePart(File dest, int length, String validator) throws IOException {
+        Files.write(new File(dest.getPath() + ".part").toPath(), Arrays.copyOf(body, length));
+        Files.write(new File(dest.getPath() + ".part.validator").toPath(), validator.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        connections.add(exchange.getRemoteAddress());
+        try (InputStream is = exchange.getRequestBody()) {
+            while (is.read() != -1) {
+            }
+        }
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        ranges.add(range == null ? "" : range);
+        exchange.getResponseHeaders().add("ETag", ETAG);
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        int start = 0;
+        if (range != null && ETAG.equals(ifRange)) {
+            start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + (body.length - 1) + "/" + body.length);
+            exchange.sendResponseHeaders(206, body.length - start);
+        } else {
+            exchange.sendResponseHeaders(200, body.length);
+        }
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body, start, body.length - start);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.tasks.download;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks jobs submitted while an idle worker is exiting still run.
+ */
+public class DownloadSchedulerTest {
+
+    @Test
+    public void submitAfterIdleTimeout() throws InterruptedException {
+        DownloadScheduler scheduler = new DownloadScheduler(1, 1, 0);
+        AtomicInteger ran = new AtomicInteger();
+        int submitted = 0;
+        //Land submissions around the 100ms idle timeout, when the only worker is leaving.
+        for (int i = 0; i < 40; i++) {
+            scheduler.submit(1, () -> {
+                ran.incrementAndGet();
+                return 0L;
+            });
+            submitted++;
+            Thread.sleep(95 + i % 10);
+        }
+        scheduler.shutdown();
+        assertTrue("Jobs were stranded in the queue", scheduler.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(submitted, ran.get());
+    }
+}
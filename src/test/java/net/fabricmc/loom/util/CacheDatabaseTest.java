@@ -0,0 +1,140 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class CacheDatabaseTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File file = new File(folder.getRoot(), "db.bin");
+        try (CacheDatabase db = CacheDatabase.open(file)) {
+            db.put("a", bytes("1"));
+            db.put("b", bytes("2"));
+            db.put("a", bytes("3"));
+            assertArrayEquals(bytes("3"), db.get("a"));
+        }
+        try (CacheDatabase db = CacheDatabase.open(file)) {
+            assertArrayEquals(bytes("3"), db.get("a"));
+            assertArrayEquals(bytes("2"), db.get("b"));
+            assertNull(db.get("c"));
+        }
+    }
+
+    @Test
+    public void testTornRecordIsDropped() throws IOException {
+        File file = new File(folder.getRoot(), "db.bin");
+        try (CacheDatabase db = CacheDatabase.open(file)) {
+            db.put("a", bytes("1"));
+        }
+        long length = file.length();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(length);
+            raf.writeInt(100);
+            raf.writeInt(12345);
+            raf.write(new byte[10]);
+        }
+        try (CacheDatabase db = CacheDatabase.open(file)) {
+            assertArrayEquals(bytes("1"), db.get("a"));
+            db.put("b", bytes("2"));
+        }
+        try (CacheDatabase db = CacheDatabase.open(file)) {
+            assertArrayEquals(bytes("1"), db.get("a"));
+            assertArrayEquals(bytes("2"), db.get("b"));
+        }
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        File file = new File(folder.getRoot(), "db.bin");
+        CacheDatabase db = CacheDatabase.open(file);
+        for (int i = 0; i < 1000; i++) {
+            db.put("key" + (i % 10), bytes("value" + i));
+        }
+        long length = file.length();
+        db.compact();
+        assertTrue("File not compacted", file.length() < length / 10);
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(bytes("value" + (990 + i)), db.get("key" + i));
+        }
+        //Still appends to the compacted file.
+        db.put("key0", bytes("last"));
+        db.close();
+        try (CacheDatabase reopened = CacheDatabase.open(file)) {
+            assertArrayEquals(bytes("last"), reopened.get("key0"));
+            assertArrayEquals(bytes("value999"), reopened.get("key9"));
+        }
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testCompactionByAnotherInstance() throws IOException {
+        File file = new File(folder.getRoot(), "db.bin");
+        try (CacheDatabase first = CacheDatabase.open(file)) {
+            first.put("shared", bytes("1"));
+            try (CacheDatabase second = CacheDatabase.open(file)) {
+                for (int i = 0; i < 1000; i++) {
+                    second.put("key" + (i % 10), bytes("value" + i));
+                }
+                assertArrayEquals(bytes("1"), second.get("shared"));
+                second.compact();
+            }
+            //The first instance still has the replaced file open, it must follow the rename.
+            assertArrayEquals(bytes("value999"), first.get("key9"));
+            first.put("shared", bytes("2"));
+        }
+        try (CacheDatabase db = CacheDatabase.open(file)) {
+            assertArrayEquals(bytes("2"), db.get("shared"));
+        }
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testLongKeyIsRejected() throws IOException {
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < 70000; i++) {
+            key.append('a');
+        }
+        try (CacheDatabase db = CacheDatabase.open(new File(folder.getRoot(), "db.bin"))) {
+            db.put(key.toString(), bytes("1"));
+        }
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks entries of files no longer used are pruned from the cache when it is saved.
+ */
+public class FileHashCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPrunesUnusedEntries() throws IOException {
+        File cacheFile = new File(folder.getRoot(), "hashes.json");
+        File used = write("used.txt");
+        File unused = write("unused.txt");
+        FileHashCache cache = FileHashCache.load(cacheFile, "sha256", Hashing.sha256());
+        cache.getHash(used);
+        cache.getHash(unused);
+        cache.save();
+        assertEquals(2, readEntries(cacheFile).size());
+
+        //As if the file was last used long ago, i.e. by a version since deleted.
+        JsonObject json = readJson(cacheFile);
+        json.getAsJsonObject("entries").getAsJsonObject(unused.getCanonicalPath()).addProperty("lastUsed", 1L);
+        Files.write(cacheFile.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+
+        cache = FileHashCache.load(cacheFile, "sha256", Hashing.sha256());
+        cache.getHash(used);
+        cache.save();
+        JsonObject entries = readEntries(cacheFile);
+        assertTrue(entries.has(used.getCanonicalPath()));
+        assertFalse("Unused entry kept", entries.has(unused.getCanonicalPath()));
+    }
+
+    @Test
+    public void testKeepsEntriesWithoutLastUse() throws IOException {
+        File cacheFile = new File(folder.getRoot(), "hashes.json");
+        File file = write("file.txt");
+        FileHashCache cache = FileHashCache.load(cacheFile, "sha256", Hashing.sha256());
+        cache.getHash(file);
+        cache.save();
+
+        //Written before last use was tracked.
+        JsonObject json = readJson(cacheFile);
+        json.getAsJsonObject("entries").getAsJsonObject(file.getCanonicalPath()).remove("lastUsed");
+        Files.write(cacheFile.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+
+        cache = FileHashCache.load(cacheFile, "sha256", Hashing.sha256());
+        cache.getHash(write("other.txt"));
+        cache.save();
+        assertTrue(readEntries(cacheFile).has(file.getCanonicalPath()));
+    }
+
+    private File write(String name) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), name.getBytes(StandardCharsets.UTF_8));
+        //Old enough that its hash is trusted.
+        file.setLastModified(System.currentTimeMillis() - 60000);
+        return file;
+    }
+
+    private static JsonObject readEntries(File cacheFile) throws IOException {
+        return readJson(cacheFile).getAsJsonObject("entries");
+    }
+
+    private static JsonObject readJson(File cacheFile) throws IOException {
+        return new JsonParser().parse(new String(Files.readAllBytes(cacheFile.toPath()), StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import net.fabricmc.loom.data.CompiledMappings;
+import net.fabricmc.tinyremapper.IMappingProvider;
+import net.fabricmc.tinyremapper.TinyUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the compiled mappings feed tiny-remapper exactly what parsing the text does.
+ */
+public class TinyMappingProviderTest {
+
+    private static final String MAPPINGS = String.join("\n",//
+            "v1\tofficial\tintermediary\tnamed",//
+            "CLASS\ta\tnet/minecraft/class_1\tnet/minecraft/Foo",//
+            "CLASS\tb\tnet/minecraft/class_2\tnet/minecraft/Bar",//
+            "CLASS\tb$a\tnet/minecraft/class_2$class_3\tnet/minecraft/Bar$Inner",//
+            "FIELD\ta\tLb;\tc\tfield_1\tbar",//
+            "FIELD\ta\t[Lb$a;\td\tfield_2\tinners",//
+            "FIELD\tb\tI\ta\tfield_3\tcount",//
+            "METHOD\ta\t(Lb;I)La;\ta\tmethod_1\tcreate",//
+            "METHOD\tb$a\t()V\tb\tmethod_2\trun",//
+            "METHOD\tc\t(La;)Ljava/lang/String;\ta\tmethod_3\tdescribe",//
+            "");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMatchesTextParse() throws IOException {
+        File file = writeMappings();
+        assertNotNull(CompiledMappings.compile(file));
+        String[] namespaces = { "official", "intermediary", "named" };
+        for (String from : namespaces) {
+            for (String to : namespaces) {
+                IMappingProvider compiled = TinyMappingProvider.create(file, from, to);
+                assertTrue(compiled instanceof TinyMappingProvider);
+                Maps expected = new Maps(TinyUtils.createTinyMappingProvider(file.toPath(), from, to));
+                Maps actual = new Maps(compiled);
+                assertEquals(from + " -> " + to + " classes", expected.classes, actual.classes);
+                assertEquals(from + " -> " + to + " fields", expected.fields, actual.fields);
+                assertEquals(from + " -> " + to + " methods", expected.methods, actual.methods);
+            }
+        }
+    }
+
+    @Test
+    public void testKeyFormat() throws IOException {
+        File file = writeMappings();
+        CompiledMappings.compile(file);
+        Maps maps = new Maps(TinyMappingProvider.create(file, "intermediary", "named"));
+        assertEquals("net/minecraft/Bar$Inner", maps.classes.get("net/minecraft/class_2$class_3"));
+        assertEquals("net/minecraft/Foo/inners", maps.fields.get("net/minecraft/class_1/field_2;;[Lnet/minecraft/class_2$class_3;"));
+        assertEquals("net/minecraft/Foo/create", maps.methods.get("net/minecraft/class_1/method_1(Lnet/minecraft/class_2;I)Lnet/minecraft/class_1;"));
+        //Members of classes without a CLASS line keep their owner.
+        assertEquals("c/describe", maps.methods.get("c/method_3(Lnet/minecraft/class_1;)Ljava/lang/String;"));
+        assertFalse(maps.classes.containsKey("c"));
+    }
+
+    @Test
+    public void testCompilesOnFirstLoad() throws IOException {
+        File file = writeMappings();
+        assertTrue(TinyMappingProvider.create(file, "official", "named") instanceof TinyMappingProvider);
+        assertNotNull("Compiled form not written", CompiledMappings.load(file));
+
+        Files.write(file.toPath(), (MAPPINGS + "CLASS\te\tnet/minecraft/class_4\tnet/minecraft/Baz\n").getBytes(StandardCharsets.UTF_8));
+        Maps maps = new Maps(TinyMappingProvider.create(file, "official", "named"));
+        assertEquals("Stale compiled form used", "net/minecraft/Baz", maps.classes.get("e"));
+    }
+
+    private File writeMappings() throws IOException {
+        File file = new File(folder.getRoot(), "mappings.tiny");
+        Files.write(file.toPath(), MAPPINGS.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static class Maps {
+
+        private final Map<String, String> classes = new HashMap<>();
+        private final Map<String, String> fields = new HashMap<>();
+        private final Map<String, String> methods = new HashMap<>();
+
+        private Maps(IMappingProvider provider) {
+            provider.load(classes, fields, methods);
+        }
+    }
+}